@@ -0,0 +1,34 @@
+package cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* MapNode holding its value as bytes, as given, instead of as a String. Byte
+   reads are views of the array; String reads decode it as UTF-8. */
+public class BytesNode extends MapNode {
+    private final byte[] bytes;
+
+    /** Takes ownership of bytes, which must not change afterwards */
+    public BytesNode(String key, byte[] bytes, long cost, long size) {
+        super(key, null, cost, size);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String getValue() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ByteBuffer getValueBytes() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readValueBytes(ByteBuffer dst) {
+        if (dst.remaining() >= bytes.length) {
+            dst.put(bytes);
+        }
+        return bytes.length;
+    }
+}
@@ -1,6 +1,54 @@
 package cache;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 public interface Cache {
     String get(String key);
-    boolean putIfAbsent(String key, String value, int cost, int size);
+    boolean putIfAbsent(String key, String value, long cost, long size);
+
+    /** Returns the value for key, computing and inserting it on a miss.
+     * Values loaded without a cost are charged the loader's latency. Caches
+     * that coalesce concurrent misses on a key override this; the default may
+     * run the loader once per missing caller */
+    default String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        CacheValue loaded = LatencyCost.measure(loader, key);
+        if (loaded == null) {
+            return null;
+        }
+        putIfAbsent(key, loaded.getValue(), loaded.getCost(),
+                loaded.getSize());
+        return loaded.getValue();
+    }
+
+    /** Returns the values of those keys that are present */
+    default Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>();
+        for (String key : keys) {
+            String value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /** Inserts every entry whose key is absent. Returns how many were */
+    default int putAllIfAbsent(Map<String, CacheValue> entries) {
+        int added = 0;
+        for (Map.Entry<String, CacheValue> e : entries.entrySet()) {
+            CacheValue v = e.getValue();
+            if (putIfAbsent(e.getKey(), v.getValue(), v.getCost(),
+                    v.getSize())) {
+                added++;
+            }
+        }
+        return added;
+    }
 }
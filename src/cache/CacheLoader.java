@@ -0,0 +1,7 @@
+package cache;
+
+/** Computes the value for a key that missed in the cache */
+public interface CacheLoader {
+    /** Returns the value to cache, or null if there is none */
+    CacheValue load(String key);
+}
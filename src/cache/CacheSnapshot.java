@@ -0,0 +1,473 @@
+package cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Binary snapshot of cache entries in a memory-mapped file, for warm
+   restarts. Opening a snapshot only maps it: entries are looked up through an
+   on-disk hash index and paged in by the OS as they are read. Each entry can
+   be taken out once; a snapshot whose entries have all been taken is
+   drained.
+
+   Layout, big-endian:
+     header   magic, version, precision, count (ints), base (long),
+              index slots (int), index offset (long)
+     records  key length, value length (ints), cost, size, ordering,
+              bucket priority, write time, expiry time (longs), key bytes
+              (UTF-8), value bytes as the cache held them. Times are in
+              wall-clock milliseconds, so that they survive a restart; an
+              expiry time of 0 is never. Sorted by ordering, and padded so
+              that none crosses a region
+     index    one long per slot: a record offset, or -1 where empty. Keys
+              are placed by hash and probed linearly
+
+   base is the CAMP base priority L at the time of the snapshot, so that an
+   entry's ordering minus base is the credit it had left. The file is mapped
+   in regions of at most 1 GB, the limit of a MappedByteBuffer.
+
+   A snapshot is safe to read from many threads at once.
+ */
+public class CacheSnapshot {
+    private static final int MAGIC = 0x43414d50; // "CAMP"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_HEADER_SIZE = 56;
+    private static final long REGION_SIZE = 1L << 30;
+    private static final long EMPTY = -1;
+
+    private final MappedByteBuffer[] regions;
+    private final int precision;
+    private final int count;
+    private final long base;
+    private final int indexMask;
+    private final long indexOffset;
+
+    /** Index slots whose entries have been taken, one bit each */
+    private final AtomicLongArray taken;
+    private final AtomicInteger remaining;
+
+    private CacheSnapshot(MappedByteBuffer[] regions) throws IOException {
+        this.regions = regions;
+        if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+            throw new IOException("Not a cache snapshot");
+        }
+        precision = getInt(8);
+        count = getInt(12);
+        base = getLong(16);
+        indexMask = getInt(24) - 1;
+        indexOffset = getLong(28);
+        taken = new AtomicLongArray((indexMask + 64) / 64);
+        remaining = new AtomicInteger(count);
+    }
+
+    /** Maps an existing snapshot read-only */
+    public static CacheSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            return new CacheSnapshot(map(channel, channel.size(),
+                    FileChannel.MapMode.READ_ONLY));
+        }
+    }
+
+    /** Writes nodes to path, replacing it atomically once complete. Nodes
+     * may still be changing: each one's fields are read once, and nodes
+     * whose values are gone or that have expired are left out. expiry holds
+     * the nodes' deadlines. Values are
+     * copied straight from their nodes into the file, one at a time, so
+     * that off-heap and compressed values aren't all copied onto the heap
+     * at once. base and precision are those of the queue the nodes came
+     * from */
+    public static void write(Path path, MapNode[] nodes, long base,
+                             int precision, Expiry expiry)
+            throws IOException {
+        long nanos = System.nanoTime();
+        long millis = System.currentTimeMillis();
+        // Finds values' lengths without room to copy them
+        ByteBuffer noRoom = ByteBuffer.allocate(0);
+        List<Record> records = new ArrayList<>(nodes.length);
+        for (MapNode node : nodes) {
+            if (expiry.isExpired(node, nanos)) {
+                continue;
+            }
+            int valueLength = node.readValueBytes(noRoom);
+            if (valueLength >= 0) {
+                records.add(new Record(node, valueLength, precision, expiry,
+                        nanos, millis));
+            }
+        }
+        records.sort(Comparator.comparingLong(r -> r.ordering));
+
+        // Lay out records, padding past region ends, then the index
+        long offset = HEADER_SIZE;
+        List<Record> placed = new ArrayList<>(records.size());
+        for (Record r : records) {
+            long length = r.length();
+            if (length > REGION_SIZE) {
+                continue;
+            }
+            if (offset % REGION_SIZE + length > REGION_SIZE) {
+                offset += REGION_SIZE - offset % REGION_SIZE;
+            }
+            r.offset = offset;
+            offset += length;
+            placed.add(r);
+        }
+        int slots = ceilingNextPowerOfTwo(Math.max(2, 2 * placed.size()));
+        long indexOffset = (offset + 7) & ~7L;
+        long fileSize = indexOffset + 8L * slots;
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer[] regions = map(channel, fileSize,
+                    FileChannel.MapMode.READ_WRITE);
+            Writer out = new Writer(regions);
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, precision);
+            out.putLong(16, base);
+            out.putInt(24, slots);
+            out.putLong(28, indexOffset);
+
+            long[] index = new long[slots];
+            Arrays.fill(index, EMPTY);
+            int written = 0;
+            for (Record r : placed) {
+                if (!r.writeTo(out)) {
+                    // Its value went away since it was measured
+                    continue;
+                }
+                written++;
+                int i = spread(r.node.getKey().hashCode()) & (slots - 1);
+                while (index[i] != EMPTY) {
+                    i = (i + 1) & (slots - 1);
+                }
+                index[i] = r.offset;
+            }
+            out.putInt(12, written);
+            for (int i = 0; i < slots; i++) {
+                out.putLong(indexOffset + 8L * i, index[i]);
+            }
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns key's entry, or null if the snapshot doesn't hold it. Taken
+     * entries are still found */
+    public Entry find(String key) {
+        int slot = slotOf(key);
+        return (slot < 0) ? null :
+                new Entry(key, getLong(indexOffset + 8L * slot));
+    }
+
+    /** Like find, but each entry is only returned once; later calls for
+     * the same key return null, as if the snapshot didn't hold it */
+    public Entry take(String key) {
+        int slot = slotOf(key);
+        if (slot < 0 || !claim(slot)) {
+            return null;
+        }
+        remaining.decrementAndGet();
+        return new Entry(key, getLong(indexOffset + 8L * slot));
+    }
+
+    /** Whether every entry has been taken */
+    public boolean isDrained() {
+        return remaining.get() <= 0;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public long getBase() {
+        return base;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Index slot holding key's record, or -1 */
+    private int slotOf(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        for (int i = spread(key.hashCode()) & indexMask; ;
+             i = (i + 1) & indexMask) {
+            long offset = getLong(indexOffset + 8L * i);
+            if (offset == EMPTY) {
+                return -1;
+            }
+            if (getInt(offset) == keyBytes.length && Arrays.equals(keyBytes,
+                    getBytes(offset + RECORD_HEADER_SIZE, keyBytes.length))) {
+                return i;
+            }
+        }
+    }
+
+    /** Marks a slot taken. Returns false if it already was */
+    private boolean claim(int slot) {
+        long bit = 1L << slot;
+        while (true) {
+            long bits = taken.get(slot >>> 6);
+            if ((bits & bit) != 0) {
+                return false;
+            }
+            if (taken.compareAndSet(slot >>> 6, bits, bits | bit)) {
+                return true;
+            }
+        }
+    }
+
+    private int getInt(long position) {
+        return regions[(int) (position / REGION_SIZE)]
+                .getInt((int) (position % REGION_SIZE));
+    }
+
+    private long getLong(long position) {
+        return regions[(int) (position / REGION_SIZE)]
+                .getLong((int) (position % REGION_SIZE));
+    }
+
+    private byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        regions[(int) (position / REGION_SIZE)]
+                .get((int) (position % REGION_SIZE), bytes);
+        return bytes;
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, long size,
+                                          FileChannel.MapMode mode)
+            throws IOException {
+        int n = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+        MappedByteBuffer[] regions = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * REGION_SIZE;
+            regions[i] = channel.map(mode, start,
+                    Math.min(REGION_SIZE, size - start));
+        }
+        return regions;
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        // From CLHM source code
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /* One entry of an open snapshot. Its fields are read from the mapping
+       when asked for */
+    public class Entry {
+        private final String key;
+        private final long offset;
+
+        private Entry(String key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /** The value decoded as UTF-8 */
+        public String getValue() {
+            int keyLength = getInt(offset);
+            int valueLength = getInt(offset + 4);
+            return new String(getBytes(offset + RECORD_HEADER_SIZE +
+                    keyLength, valueLength), StandardCharsets.UTF_8);
+        }
+
+        /** Read-only view of the value's bytes in the mapping, as the cache
+         * held them */
+        public ByteBuffer getValueBytes() {
+            int keyLength = getInt(offset);
+            int valueLength = getInt(offset + 4);
+            long position = offset + RECORD_HEADER_SIZE + keyLength;
+            return regions[(int) (position / REGION_SIZE)]
+                    .slice((int) (position % REGION_SIZE), valueLength)
+                    .asReadOnlyBuffer();
+        }
+
+        public long getCost() {
+            return getLong(offset + 8);
+        }
+
+        public long getSize() {
+            return getLong(offset + 16);
+        }
+
+        public long getOrdering() {
+            return getLong(offset + 24);
+        }
+
+        /** Priority of the LRU queue the entry was in */
+        public long getPriority() {
+            return getLong(offset + 32);
+        }
+
+        /** Priority of the LRU queue the entry belongs in at precision:
+         * the one it was in if that was the snapshot's precision, else one
+         * recomputed from its cost and size */
+        public long getPriority(int precision) {
+            return (precision == CacheSnapshot.this.precision) ?
+                    getPriority() : CampQueue.calculatePriority(getCost(),
+                    getSize(), precision);
+        }
+
+        /** How far the entry's ordering was above the base priority */
+        public long getCredit() {
+            return Math.max(getOrdering() - base, 0);
+        }
+
+        /** When the entry was written, in wall-clock milliseconds */
+        public long getWrittenAt() {
+            return getLong(offset + 40);
+        }
+
+        /** When the entry was due to expire, in wall-clock milliseconds, or
+         * 0 if never */
+        public long getExpiresAt() {
+            return getLong(offset + 48);
+        }
+
+        public boolean isExpired() {
+            long expiresAt = getExpiresAt();
+            return (expiresAt != 0) &&
+                    (expiresAt <= System.currentTimeMillis());
+        }
+
+        /** When the entry was written, on this process's System.nanoTime()
+         * clock, so that expiry can count from then */
+        public long getWriteTime() {
+            long age = System.currentTimeMillis() - getWrittenAt();
+            return System.nanoTime() - 1000000L * Math.max(age, 0);
+        }
+    }
+
+    /** Bytes taken by s in UTF-8, without encoding it */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() &&
+                    Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                // Lone surrogates are encoded as '?'
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /* A node's fields, read once so that sorting sees stable values. Keys
+       and values are only copied out as they are written */
+    private static class Record {
+        final MapNode node;
+        final int keyLength, valueLength;
+        final long ordering, priority, writtenAt, expiresAt;
+        long offset;
+
+        /** nanos and millis are the same instant on both clocks */
+        Record(MapNode node, int valueLength, int precision, Expiry expiry,
+               long nanos, long millis) {
+            this.node = node;
+            this.valueLength = valueLength;
+            keyLength = utf8Length(node.getKey());
+            ordering = node.getOrdering();
+            CampQueue.Bucket bucket = node.bucket;
+            priority = (bucket != null) ? bucket.priority :
+                    CampQueue.calculatePriority(node.getCost(),
+                            node.getSize(), precision);
+            // Nodes written while expiry was off have no write time
+            long writeTime = expiry.getWriteTime(node);
+            writtenAt = (writeTime == 0) ? millis :
+                    millis - (nanos - writeTime) / 1000000L;
+            long deadline = expiry.getExpiresAt(node);
+            expiresAt = (deadline == 0) ? 0 :
+                    millis + Math.max((deadline - nanos) / 1000000L, 1);
+        }
+
+        long length() {
+            return RECORD_HEADER_SIZE + (long) keyLength + valueLength;
+        }
+
+        /** Returns false if the node's value has gone */
+        boolean writeTo(Writer out) {
+            out.putInt(offset, keyLength);
+            out.putInt(offset + 4, valueLength);
+            out.putLong(offset + 8, node.getCost());
+            out.putLong(offset + 16, node.getSize());
+            out.putLong(offset + 24, ordering);
+            out.putLong(offset + 32, priority);
+            out.putLong(offset + 40, writtenAt);
+            out.putLong(offset + 48, expiresAt);
+            out.putBytes(offset + RECORD_HEADER_SIZE,
+                    node.getKey().getBytes(StandardCharsets.UTF_8));
+            return out.putValue(offset + RECORD_HEADER_SIZE + keyLength,
+                    node, valueLength);
+        }
+    }
+
+    /* Absolute writes across regions. Nothing written spans two regions */
+    private static class Writer {
+        private final MappedByteBuffer[] regions;
+
+        Writer(MappedByteBuffer[] regions) {
+            this.regions = regions;
+        }
+
+        void putInt(long position, int value) {
+            regions[(int) (position / REGION_SIZE)]
+                    .putInt((int) (position % REGION_SIZE), value);
+        }
+
+        void putLong(long position, long value) {
+            regions[(int) (position / REGION_SIZE)]
+                    .putLong((int) (position % REGION_SIZE), value);
+        }
+
+        void putBytes(long position, byte[] bytes) {
+            regions[(int) (position / REGION_SIZE)]
+                    .put((int) (position % REGION_SIZE), bytes);
+        }
+
+        /** Copies node's value of length bytes straight into the file.
+         * Returns false if it has gone */
+        boolean putValue(long position, MapNode node, int length) {
+            ByteBuffer dst = regions[(int) (position / REGION_SIZE)]
+                    .slice((int) (position % REGION_SIZE), length);
+            return node.readValueBytes(dst) == length;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package cache;
+
+/* Value produced by a CacheLoader, with the cost and size it is cached at */
+public class CacheValue {
+    /** Cost of values whose cost should be measured from loader latency */
+    public static final long UNMEASURED = -1;
+
+    private final String value;
+    private final long cost, size;
+
+    public CacheValue(String value, long cost, long size) {
+        this.value = value;
+        this.cost = cost;
+        this.size = size;
+    }
+
+    /** The cache charges this value the time its loader took, in
+     * nanoseconds. See LatencyCost */
+    public CacheValue(String value, long size) {
+        this(value, UNMEASURED, size);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean hasCost() {
+        return cost != UNMEASURED;
+    }
+}
@@ -1,53 +1,113 @@
 package cache;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class CampCache implements Cache {
-    /** MIN_PRIORITY and MAX_PRIORITY contain the minimum and maximum cost-to-size
-     * ratios allowed */
-    private static final int MIN_PRIORITY = 1;
-    private static final int MAX_PRIORITY = 5000;
-    /** Range represents the number of possible index values */
-    private static final int RANGE = MAX_PRIORITY - MIN_PRIORITY + 1;
+    /** Most evictions one operation may perform to catch up after the
+     * capacity shrinks. Larger shrinks are spread over several operations */
+    private static final int MAX_EVICTIONS = 256;
 
     private final Map<String, MapNode> data = new HashMap<>();
-    private final DoublyLinkedList<MapNode>[] lruQueues;
-    private final PriorityQueue<MapNode> heap = new PriorityQueue<>();
+    private final CampQueue queue;
 
     private final Lock lock = new ReentrantLock();
+    private final SingleFlight loads = new SingleFlight();
 
-    private final int capacity;
-    private int load; // Represents amount of data currently in Cache
+    /** Expiration, advanced under the lock by every operation */
+    private final Expiry expiry = new Expiry();
+    private final TimerWheel wheel = new TimerWheel(expiry,
+            System.nanoTime());
+    private final Consumer<MapNode> expirer = this::remove;
 
-    private final int precision;
+    /** Snapshot that misses are paged in from, or null */
+    private CacheSnapshot snapshot = null;
 
-    @SuppressWarnings("unchecked")
-    public CampCache(int capacity, int precision) {
+    private long capacity;
+    private long load; // Represents amount of data currently in Cache
+
+    public CampCache(long capacity, int precision) {
         this.capacity = capacity;
-        this.precision = precision;
+        queue = new CampQueue(precision);
         load = 0;
-
-        // Get around restrictions on Arrays of Java Generics
-        lruQueues = new DoublyLinkedList[RANGE];
-        for (int i = 0; i < RANGE; i++) {
-            lruQueues[i] = new DoublyLinkedList<>();
-        }
     }
 
     /** Initializes CampCache with default precision of 5 */
-    public CampCache(int capacity) {
+    public CampCache(long capacity) {
         this(capacity, 5);
     }
 
+    /** Changes the capacity. Any excess is evicted by subsequent operations,
+     * a bounded number of entries at a time */
+    public void setCapacity(long capacity) {
+        lock.lock();
+        this.capacity = capacity;
+        lock.unlock();
+    }
+
+    /** Changes the precision. Entries move to their new queues lazily, as
+     * they are read */
+    public void setPrecision(int precision) {
+        lock.lock();
+        queue.setPrecision(precision);
+        lock.unlock();
+    }
+
+    /** Writes every entry to a snapshot at path. The lock is only held to
+     * copy out references to the entries, not while writing */
+    public void writeSnapshot(Path path) throws IOException {
+        lock.lock();
+        MapNode[] nodes = data.values().toArray(new MapNode[0]);
+        long base = queue.getBasePriority();
+        int precision = queue.getPrecision();
+        lock.unlock();
+        CacheSnapshot.write(path, nodes, base, precision, expiry);
+    }
+
+    /** Maps a snapshot, from which misses are paged in from then on. Each
+     * entry comes back with the credit it had above the base priority, so
+     * restored entries keep their standing relative to one another, and
+     * with its original write time, so expiry counts from then. Entries are
+     * paged in at most once, and dropped if they have expired. The snapshot
+     * is closed once every entry has been paged in or dropped */
+    public void loadSnapshot(Path path) throws IOException {
+        CacheSnapshot opened = CacheSnapshot.open(path);
+        lock.lock();
+        snapshot = opened;
+        lock.unlock();
+    }
+
+    /** Stops paging in from the snapshot, if any */
+    public void closeSnapshot() {
+        lock.lock();
+        snapshot = null;
+        lock.unlock();
+    }
+
+    /** Entries written from now on expire this long after being written */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        expiry.setAfterWrite(duration, unit);
+    }
+
+    /** Entries written from now on expire this long after their last read */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        expiry.setAfterAccess(duration, unit);
+    }
+
     @Override
     public String get(String key) {
         lock.lock();
-        MapNode result = data.get(key);
-        refresh(result);
+        MapNode result = lookup(key, expire());
+        trim(0);
         lock.unlock();
 
         if (result != null) {
@@ -58,116 +118,204 @@ public class CampCache implements Cache {
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
+    public String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return loads.load(this, key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
         lock.lock();
+        long now = expire();
         MapNode node = new MapNode(key, value, cost, size);
-        if (data.putIfAbsent(key, node) != null) {
+        if (!claim(node, now)) {
             lock.unlock();
             return false;
         }
 
-        while(load > capacity) {
-            evict();
-        }
-
-        push(node);
+        trim(1);
+        load += size;
+        push(node, now);
         lock.unlock();
 
         return true;
     }
 
-    private void evict() {
-        // Get the top of the Heap
-        MapNode node = heap.poll();
-        if (node == null) {
-            return;
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>();
+        lock.lock();
+        long now = expire();
+        for (String key : keys) {
+            MapNode node = lookup(key, now);
+            if (node != null) {
+                result.put(key, node.getValue());
+            }
+        }
+        trim(0);
+        lock.unlock();
+        return result;
+    }
+
+    @Override
+    public int putAllIfAbsent(Map<String, CacheValue> entries) {
+        List<MapNode> added = new ArrayList<>(entries.size());
+        long addedSize = 0;
+        lock.lock();
+        long now = expire();
+        for (Map.Entry<String, CacheValue> e : entries.entrySet()) {
+            CacheValue v = e.getValue();
+            MapNode node = new MapNode(e.getKey(), v.getValue(), v.getCost(),
+                    v.getSize());
+            if (claim(node, now)) {
+                addedSize += node.getSize();
+                added.add(node);
+            }
         }
 
-        data.remove(node.getKey());
-        load -= node.getSize();
+        // Evict once for the combined size, before any new entry is queued
+        for (int i = 0; i < MAX_EVICTIONS + added.size() &&
+                load + addedSize > capacity && evict(); i++) {
+            // Keep evicting until the new entries fit
+        }
+        for (MapNode node : added) {
+            load += node.getSize();
+            push(node, now);
+        }
+        lock.unlock();
+        return added.size();
+    }
 
-        int index = calculatePriority(node.getCost(), node.getSize());
-        lruQueues[index].remove(node);
-        if (!lruQueues[index].isEmpty()) {
-            heap.offer(lruQueues[index].peekHead());
+    /** Advances the timer wheel, removing whatever has expired. Returns the
+     * current time, or 0 if expiry is off. Expects to hold lock. */
+    private long expire() {
+        if (!expiry.isEnabled()) {
+            return 0;
         }
+        long now = System.nanoTime();
+        wheel.advance(now, expirer);
+        return now;
     }
 
-    /** Places a MapNode into heap and correct LRUQueue */
-    private void push(MapNode node) {
+    /** Finds a live node and records the read. Expects to hold lock. */
+    private MapNode lookup(String key, long now) {
+        MapNode node = data.get(key);
         if (node == null) {
-            return;
+            return pageIn(key, now);
         }
 
-        load += node.getSize();
-        int index = calculatePriority(node.getCost(), node.getSize());
-        boolean isEmpty = lruQueues[index].isEmpty();
-
-        int inflated = getBasePriority() + index;
-        node.setOrdering(inflated);
-
-        lruQueues[index].pushTail(node);
-        if (isEmpty) {
-            heap.offer(lruQueues[index].peekHead());
+        // The wheel only has tick resolution, so check the node itself too
+        if (expiry.isExpired(node, now)) {
+            remove(node);
+            return null;
         }
+        queue.refresh(node);
+        if (expiry.onAccess(node, now)) {
+            wheel.schedule(node);
+        }
+        return node;
     }
 
-    private void refresh(MapNode node) {
-        if (node == null) {
-            return;
+    /** Maps node's key to it, unless a live node is already present. The
+     * key's snapshot entry, if any, is superseded. Expects to hold lock. */
+    private boolean claim(MapNode node, long now) {
+        MapNode existing = data.get(node.getKey());
+        if (existing != null) {
+            if (!expiry.isExpired(existing, now)) {
+                return false;
+            }
+            remove(existing);
         }
+        data.put(node.getKey(), node);
+        takeSnapshotEntry(node.getKey());
+        return true;
+    }
 
-        int index = calculatePriority(node.getCost(), node.getSize());
-        boolean wasHead = lruQueues[index].isHead(node);
+    /** Inserts key's entry from the snapshot, if it has one. Expects to
+     * hold lock. */
+    private MapNode pageIn(String key, long now) {
+        CacheSnapshot.Entry entry = takeSnapshotEntry(key);
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
 
-        lruQueues[index].remove(node);
-        boolean wasEmpty = lruQueues[index].isEmpty();
-        if (wasHead) {
-            heap.remove(node);
-            if (!wasEmpty) {
-                heap.offer(lruQueues[index].peekHead());
+        MapNode node = new MapNode(key, entry.getValue(), entry.getCost(),
+                entry.getSize());
+        if (now != 0) {
+            // Deadlines count from the original write, so may have passed
+            expiry.onWrite(node, now, entry.getWriteTime());
+            if (expiry.isExpired(node, now)) {
+                expiry.forget(node);
+                return null;
             }
         }
-        node.setOrdering(getBasePriority() + index);
-        lruQueues[index].pushTail(node);
-        // NOTE: wasEmpty implies wasHead. This could be simplified
-        if (wasHead && wasEmpty) {
-            heap.offer(lruQueues[index].peekHead());
+        data.put(key, node);
+        trim(1);
+        load += node.getSize();
+        // Take back the standing the entry had in the snapshot
+        queue.push(node, entry.getPriority(queue.getPrecision()),
+                entry.getCredit());
+        if (now != 0) {
+            wheel.schedule(node);
         }
+        return node;
     }
 
-    /** Finds the rounded priority for a given cost and size */
-    private int calculatePriority(int cost, int size) {
-        // Convert costRatio into a priority index
-        int priority = cost / (size * MIN_PRIORITY);
-        if (priority >= RANGE) {
-            priority = RANGE - 1;
+    /** Takes key's entry out of the snapshot, if there is one, closing the
+     * snapshot once it is drained. Expects to hold lock. */
+    private CacheSnapshot.Entry takeSnapshotEntry(String key) {
+        if (snapshot == null) {
+            return null;
         }
-
-        return round(priority);
+        CacheSnapshot.Entry entry = snapshot.take(key);
+        if (snapshot.isDrained()) {
+            snapshot = null;
+        }
+        return entry;
     }
 
-    /** Rounds a number to a precision, according to CAMP algorithm */
-    private int round(int number) {
-        // Find the number of trailing bits to zero out
-        int numBits = Integer.SIZE - Integer.numberOfLeadingZeros(number);
-        int extraBits = 0;
-        if (numBits > precision) {
-            extraBits = numBits - precision;
+    /** Queues a claimed node and schedules its expiry. Expects to hold lock. */
+    private void push(MapNode node, long now) {
+        queue.push(node);
+        if (now != 0) {
+            expiry.onWrite(node, now);
+            wheel.schedule(node);
         }
+    }
 
-        // Zero extraBits trailing bits
-        int rounded = Integer.rotateRight(number, extraBits);
-        rounded = Integer.rotateLeft(rounded, extraBits);
-        return rounded;
+    /** Evicts until back under capacity, allowing MAX_EVICTIONS beyond the
+     * given number of new entries. Expects to hold lock. */
+    private void trim(int added) {
+        for (int i = 0; i < MAX_EVICTIONS + added && load > capacity &&
+                evict(); i++) {
+            // Keep evicting until back under capacity
+        }
     }
 
-    /** Updates the base priority */
-    private int getBasePriority() {
-        if (heap.isEmpty()) {
-            return 0;
-        } else {
-            return heap.peek().getOrdering();
+    /** Evicts the entry at the top of the heap. Returns false if none is left */
+    private boolean evict() {
+        // Get the top of the Heap
+        MapNode node = queue.poll();
+        if (node == null) {
+            return false;
         }
+
+        wheel.deschedule(node);
+        expiry.forget(node);
+        data.remove(node.getKey());
+        load -= node.getSize();
+        return true;
+    }
+
+    /** Removes an expired node from every structure. Expects to hold lock. */
+    private void remove(MapNode node) {
+        wheel.deschedule(node);
+        expiry.forget(node);
+        queue.remove(node);
+        data.remove(node.getKey(), node);
+        load -= node.getSize();
     }
 }
@@ -0,0 +1,186 @@
+package cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* Eviction order used by CAMP: one LRU queue per rounded cost-to-size ratio,
+   and a heap over the heads of the non-empty queues. Queues are created the
+   first time a ratio is seen and dropped once they empty, so the footprint is
+   proportional to the number of buckets actually in use.
+
+   Precision can be changed on a live queue. Queued nodes keep their old
+   buckets, which drain away through evictions, and move to a bucket at the
+   new precision whenever they are refreshed.
+
+   This class is NOT thread-safe! Any concurrent accesses must be controlled by
+   external synchronization.
+ */
+public class CampQueue {
+    private Map<Long, Bucket> buckets = new HashMap<>();
+    private final IndexedHeap heap = new IndexedHeap();
+
+    private int precision;
+    /** Bumped on every precision change, to tell stale buckets apart */
+    private int generation = 0;
+
+    public CampQueue(int precision) {
+        this.precision = precision;
+    }
+
+    /** Places a new MapNode into the heap and its LRU queue */
+    public void push(MapNode node) {
+        long priority = calculatePriority(node.getCost(), node.getSize(),
+                precision);
+        push(node, priority, priority);
+    }
+
+    /** Places a MapNode restored from elsewhere into the LRU queue for
+     * priority, credit above the base priority. A node's credit is
+     * normally its priority */
+    public void push(MapNode node, long priority, long credit) {
+        Bucket bucket = buckets.get(priority);
+        if (bucket == null) {
+            bucket = new Bucket(priority, generation);
+            buckets.put(priority, bucket);
+        }
+
+        boolean isEmpty = bucket.isEmpty();
+        node.setOrdering(getBasePriority() + credit);
+        bucket.pushTail(node);
+        node.bucket = bucket;
+        if (isEmpty) {
+            heap.offer(node);
+        }
+    }
+
+    /** Moves a node to the tail of its queue. Ignores nodes not queued */
+    public void refresh(MapNode node) {
+        Bucket bucket = node.bucket;
+        if (bucket == null) {
+            return;
+        }
+        if (bucket.generation != generation) {
+            // Bucketed at an older precision, so find it its new queue
+            remove(node);
+            push(node);
+            return;
+        }
+
+        boolean wasHead = bucket.isHead(node);
+        bucket.remove(node);
+        if (wasHead) {
+            heap.remove(node);
+            if (!bucket.isEmpty()) {
+                heap.offer(bucket.peekHead());
+            }
+        }
+
+        boolean isEmpty = bucket.isEmpty();
+        node.setOrdering(getBasePriority() + bucket.priority);
+        bucket.pushTail(node);
+        if (isEmpty) {
+            heap.offer(node);
+        }
+    }
+
+    /** Returns the next node to be evicted, without removing it */
+    public MapNode peek() {
+        return heap.peek();
+    }
+
+    /** Removes and returns the next node to be evicted */
+    public MapNode poll() {
+        MapNode node = heap.peek();
+        if (node != null) {
+            remove(node);
+        }
+        return node;
+    }
+
+    /** Removes a node from its queue. Returns false if it was not queued */
+    public boolean remove(MapNode node) {
+        Bucket bucket = node.bucket;
+        if (bucket == null) {
+            return false;
+        }
+
+        boolean wasHead = bucket.isHead(node);
+        bucket.remove(node);
+        node.bucket = null;
+        if (wasHead) {
+            heap.remove(node);
+            if (!bucket.isEmpty()) {
+                heap.offer(bucket.peekHead());
+            }
+        }
+        if (bucket.isEmpty()) {
+            // Stale buckets aren't mapped, or may share a key with a new one
+            buckets.remove(bucket.priority, bucket);
+        }
+        return true;
+    }
+
+    /** Buckets nodes pushed or refreshed from now on at a new precision */
+    public void setPrecision(int precision) {
+        if (precision == this.precision) {
+            return;
+        }
+        this.precision = precision;
+        generation++;
+        buckets = new HashMap<>();
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    /** Number of LRU queues currently allocated at the current precision */
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /** Finds the rounded priority for a given cost and size */
+    public static long calculatePriority(long cost, long size, int precision) {
+        // Sizes are at least one unit, so that free entries don't divide by 0
+        long priority = cost / Math.max(size, 1);
+        if (priority < 0) {
+            priority = 0;
+        }
+        return round(priority, precision);
+    }
+
+    /** Keeps the precision most significant bits of a number. This puts
+     * priorities on a log scale: each power of two holds 2^precision buckets */
+    static long round(long number, int precision) {
+        // Find the number of trailing bits to zero out
+        int numBits = Long.SIZE - Long.numberOfLeadingZeros(number);
+        int extraBits = 0;
+        if (numBits > precision) {
+            extraBits = numBits - precision;
+        }
+
+        // Zero extraBits trailing bits
+        return (number >>> extraBits) << extraBits;
+    }
+
+    /** The base priority L: the ordering of the next node to be evicted */
+    public long getBasePriority() {
+        MapNode head = heap.peek();
+        return (head == null) ? 0 : head.getOrdering();
+    }
+
+    /* LRU queue holding every node with the same rounded priority */
+    static class Bucket extends DoublyLinkedList<MapNode> {
+        final long priority;
+        final int generation;
+
+        Bucket(long priority, int generation) {
+            this.priority = priority;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package cache;
+
+/* Expiry state of one MapNode, kept by Expiry apart from the node itself so
+   that caches without expiry don't carry it on every entry. Times are in
+   System.nanoTime(). */
+final class Deadline {
+    final MapNode node;
+    /** When the node counts as written */
+    final long writeTime;
+    /** When the node expires, or 0 if never */
+    volatile long expiresAt = 0;
+    /** Links within a TimerWheel bucket, or null when not scheduled */
+    Deadline prev = null, next = null;
+
+    Deadline(MapNode node, long writeTime) {
+        this.node = node;
+        this.writeTime = writeTime;
+    }
+
+    boolean isExpired(long now) {
+        long at = expiresAt;
+        return (at != 0) && (at - now <= 0);
+    }
+}
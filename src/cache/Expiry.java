@@ -0,0 +1,124 @@
+package cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/* Expire-after-write and expire-after-access settings, and the deadlines
+   they give MapNodes. A duration of 0 disables that kind of expiry. Settings
+   apply to entries written or read after they change.
+
+   Deadlines are kept here, keyed by node, rather than on the nodes, so that
+   only nodes written while expiry is on pay for them; nodes without one
+   never expire. A cache must forget a node's deadline once the node leaves
+   it. Thread-safe.
+ */
+public class Expiry {
+    private volatile long afterWriteNanos = 0;
+    private volatile long afterAccessNanos = 0;
+
+    private final ConcurrentMap<MapNode, Deadline> deadlines =
+            new ConcurrentHashMap<>();
+
+    public void setAfterWrite(long duration, TimeUnit unit) {
+        afterWriteNanos = unit.toNanos(duration);
+    }
+
+    public void setAfterAccess(long duration, TimeUnit unit) {
+        afterAccessNanos = unit.toNanos(duration);
+    }
+
+    public boolean isEnabled() {
+        return (afterWriteNanos > 0) || (afterAccessNanos > 0);
+    }
+
+    /** Sets the deadline of a node written at now. A node given a write
+     * time by onRestore keeps it */
+    public void onWrite(MapNode node, long now) {
+        Deadline restored = get(node);
+        onWrite(node, now, (restored != null) ? restored.writeTime : now);
+    }
+
+    /** Sets the deadline of a node written at now that counts as written at
+     * writeTime, such as one restored with its original write time */
+    public void onWrite(MapNode node, long now, long writeTime) {
+        Deadline deadline = new Deadline(node, writeTime);
+        deadline.expiresAt = deadline(writeTime, now);
+        deadlines.put(node, deadline);
+    }
+
+    /** Gives a node about to be written the write time it had before, for
+     * onWrite to count from. Does nothing while expiry is off */
+    public void onRestore(MapNode node, long writeTime) {
+        if (isEnabled()) {
+            deadlines.put(node, new Deadline(node, writeTime));
+        }
+    }
+
+    /** Extends the deadline of a node read at now. Returns whether it moved */
+    public boolean onAccess(MapNode node, long now) {
+        if (afterAccessNanos <= 0) {
+            return false;
+        }
+        Deadline deadline = get(node);
+        if (deadline == null || deadline.expiresAt == 0) {
+            return false;
+        }
+        deadline.expiresAt = deadline(deadline.writeTime, now);
+        return true;
+    }
+
+    public boolean isExpired(MapNode node, long now) {
+        Deadline deadline = get(node);
+        return (deadline != null) && deadline.isExpired(now);
+    }
+
+    /** When node counts as written, or 0 if it has no deadline */
+    public long getWriteTime(MapNode node) {
+        Deadline deadline = get(node);
+        return (deadline == null) ? 0 : deadline.writeTime;
+    }
+
+    /** When node expires, or 0 if never */
+    public long getExpiresAt(MapNode node) {
+        Deadline deadline = get(node);
+        return (deadline == null) ? 0 : deadline.expiresAt;
+    }
+
+    /** Drops the deadline of a node that has left the cache, or never got
+     * in. It must not be scheduled on a TimerWheel */
+    public void forget(MapNode node) {
+        if (!deadlines.isEmpty()) {
+            deadlines.remove(node);
+        }
+    }
+
+    /** node's deadline, or null if it has none */
+    Deadline get(MapNode node) {
+        // Spares nodes the identity hash while no deadline is kept
+        return deadlines.isEmpty() ? null : deadlines.get(node);
+    }
+
+    /** Whichever deadline comes first, or 0 if neither applies */
+    private long deadline(long writeTime, long now) {
+        long afterWrite = afterWriteNanos;
+        long afterAccess = afterAccessNanos;
+        if (afterWrite <= 0 && afterAccess <= 0) {
+            return 0;
+        }
+
+        long writeDeadline = writeTime + afterWrite;
+        long accessDeadline = now + afterAccess;
+        long deadline;
+        if (afterWrite <= 0) {
+            deadline = accessDeadline;
+        } else if (afterAccess <= 0) {
+            deadline = writeDeadline;
+        } else {
+            deadline = (writeDeadline - accessDeadline < 0) ?
+                    writeDeadline : accessDeadline;
+        }
+        // 0 means never, so nudge a deadline that lands on it exactly
+        return (deadline == 0) ? 1 : deadline;
+    }
+}
@@ -0,0 +1,120 @@
+package cache;
+
+import java.util.Arrays;
+
+/* Binary min-heap of MapNodes, ordered by ordering. Every node remembers its
+   own slot, so remove() is O(log n) instead of PriorityQueue's linear scan.
+
+   This class is NOT thread-safe! Any concurrent accesses must be controlled by
+   external synchronization.
+ */
+public class IndexedHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private MapNode[] nodes = new MapNode[INITIAL_CAPACITY];
+    private int size = 0;
+
+    public MapNode peek() {
+        return (size == 0) ? null : nodes[0];
+    }
+
+    public MapNode poll() {
+        if (size == 0) {
+            return null;
+        }
+        MapNode result = nodes[0];
+        removeAt(0);
+        return result;
+    }
+
+    public void offer(final MapNode node) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * size);
+        }
+        nodes[size] = node;
+        node.heapIndex = size;
+        size++;
+        siftUp(node.heapIndex);
+    }
+
+    /** Removes node if present. Returns whether it was in the heap */
+    public boolean remove(final MapNode node) {
+        int index = node.heapIndex;
+        if (index < 0 || index >= size || nodes[index] != node) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public boolean contains(final MapNode node) {
+        int index = node.heapIndex;
+        return index >= 0 && index < size && nodes[index] == node;
+    }
+
+    public boolean isEmpty() {
+        return (size == 0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void removeAt(int index) {
+        MapNode removed = nodes[index];
+        removed.heapIndex = -1;
+        size--;
+        if (index == size) {
+            nodes[size] = null;
+            return;
+        }
+
+        // Fill the hole with the last element, then restore the heap property
+        MapNode last = nodes[size];
+        nodes[size] = null;
+        nodes[index] = last;
+        last.heapIndex = index;
+        siftDown(index);
+        if (nodes[index] == last) {
+            siftUp(index);
+        }
+    }
+
+    private void siftUp(int index) {
+        MapNode node = nodes[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            MapNode p = nodes[parent];
+            if (node.getOrdering() >= p.getOrdering()) {
+                break;
+            }
+            nodes[index] = p;
+            p.heapIndex = index;
+            index = parent;
+        }
+        nodes[index] = node;
+        node.heapIndex = index;
+    }
+
+    private void siftDown(int index) {
+        MapNode node = nodes[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size &&
+                    nodes[right].getOrdering() < nodes[child].getOrdering()) {
+                child = right;
+            }
+            MapNode c = nodes[child];
+            if (node.getOrdering() <= c.getOrdering()) {
+                break;
+            }
+            nodes[index] = c;
+            c.heapIndex = index;
+            index = child;
+        }
+        nodes[index] = node;
+        node.heapIndex = index;
+    }
+}
@@ -0,0 +1,107 @@
+package cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Derives entry cost from how long its loader took, in nanoseconds, so that
+   CAMP's priorities reflect real recompute time. Values loaded with
+   CacheValue(value, size) are charged their own latency; timed() additionally
+   smooths latencies per key prefix, for keys whose individual loads are
+   noisy but whose prefix identifies the backend they come from.
+
+   Estimates are kept in a fixed table of PREFIX_SLOTS slots indexed by the
+   prefix's hash, so memory stays bounded however many distinct keys are
+   loaded; prefixes that collide share an estimate. Keys without the
+   delimiter all share one global estimate. Thread-safe.
+ */
+public class LatencyCost {
+    private static final int PREFIX_SLOTS = 1024;
+    /** Bits of an estimate not yet sampled */
+    private static final long NONE = Double.doubleToRawLongBits(Double.NaN);
+
+    private final char delimiter;
+    private final double alpha;
+    /** Estimates as double bits; the last slot is the global one */
+    private final AtomicLongArray estimates =
+            new AtomicLongArray(PREFIX_SLOTS + 1);
+
+    /** A key's prefix is everything before the first delimiter. Each sample
+     * moves its prefix's estimate alpha of the way to it */
+    public LatencyCost(char delimiter, double alpha) {
+        this.delimiter = delimiter;
+        this.alpha = alpha;
+        for (int i = 0; i < estimates.length(); i++) {
+            estimates.set(i, NONE);
+        }
+    }
+
+    /** Wraps loader so values it returns without a cost are charged the
+     * smoothed latency of their key prefix */
+    public CacheLoader timed(CacheLoader loader) {
+        return key -> {
+            long start = System.nanoTime();
+            CacheValue loaded = loader.load(key);
+            long elapsed = System.nanoTime() - start;
+            if (loaded == null || loaded.hasCost()) {
+                return loaded;
+            }
+
+            double smoothed = update(slotOf(key), elapsed);
+            return new CacheValue(loaded.getValue(), toCost(smoothed),
+                    loaded.getSize());
+        };
+    }
+
+    /** Smoothed latency of a key's prefix, or -1 if none was observed */
+    public double estimate(String key) {
+        double estimate = Double.longBitsToDouble(estimates.get(slotOf(key)));
+        return Double.isNaN(estimate) ? -1 : estimate;
+    }
+
+    /** Runs loader. A value returned without a cost is charged the time the
+     * loader took */
+    public static CacheValue measure(CacheLoader loader, String key) {
+        long start = System.nanoTime();
+        CacheValue loaded = loader.load(key);
+        long elapsed = System.nanoTime() - start;
+        if (loaded == null || loaded.hasCost()) {
+            return loaded;
+        }
+        return new CacheValue(loaded.getValue(), toCost(elapsed),
+                loaded.getSize());
+    }
+
+    /** Moves slot's estimate toward sample, or starts it there. Returns the
+     * new estimate */
+    private double update(int slot, double sample) {
+        while (true) {
+            long bits = estimates.get(slot);
+            double old = Double.longBitsToDouble(bits);
+            double smoothed = Double.isNaN(old) ? sample :
+                    old + alpha * (sample - old);
+            if (estimates.compareAndSet(slot, bits,
+                    Double.doubleToRawLongBits(smoothed))) {
+                return smoothed;
+            }
+        }
+    }
+
+    /** Slot of key's prefix, or the global slot if it has none */
+    private int slotOf(String key) {
+        int end = key.indexOf(delimiter);
+        if (end < 0) {
+            return PREFIX_SLOTS;
+        }
+        // Hashes the prefix in place, as String.hashCode would
+        int h = 0;
+        for (int i = 0; i < end; i++) {
+            h = 31 * h + key.charAt(i);
+        }
+        h ^= (h >>> 16);
+        return h & (PREFIX_SLOTS - 1);
+    }
+
+    /** Never negative, so a measured cost can't be taken for UNMEASURED */
+    private static long toCost(double nanos) {
+        return (long) Math.max(nanos, 0);
+    }
+}
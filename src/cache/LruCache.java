@@ -1,6 +1,9 @@
 package cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -10,11 +13,12 @@ public class LruCache implements Cache {
     private final DoublyLinkedList<MapNode> lruQueue = new DoublyLinkedList<>();
 
     private final Lock lock = new ReentrantLock();
+    private final SingleFlight loads = new SingleFlight();
 
-    private final int capacity;
-    private int load; // Represents amount currently in Cache
+    private final long capacity;
+    private long load; // Represents amount currently in Cache
 
-    public LruCache(int capacity) {
+    public LruCache(long capacity) {
         this.capacity = capacity;
         load = 0;
     }
@@ -33,7 +37,16 @@ public class LruCache implements Cache {
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
+    public String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return loads.load(this, key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
         lock.lock();
         MapNode node = new MapNode(key, value, cost, size);
         // If we already contain key, ignore
@@ -43,8 +56,8 @@ public class LruCache implements Cache {
         }
 
         load += size;
-        while(load > capacity) {
-            evict();
+        while(load > capacity && evict()) {
+            // Keep evicting until the new entry fits
         }
 
         lruQueue.pushTail(node);
@@ -52,13 +65,55 @@ public class LruCache implements Cache {
         return true;
     }
 
-    private void evict() {
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>();
+        lock.lock();
+        for (String key : keys) {
+            MapNode node = data.get(key);
+            if (node != null) {
+                lruQueue.moveTail(node);
+                result.put(key, node.getValue());
+            }
+        }
+        lock.unlock();
+        return result;
+    }
+
+    @Override
+    public int putAllIfAbsent(Map<String, CacheValue> entries) {
+        List<MapNode> added = new ArrayList<>(entries.size());
+        lock.lock();
+        for (Map.Entry<String, CacheValue> e : entries.entrySet()) {
+            CacheValue v = e.getValue();
+            MapNode node = new MapNode(e.getKey(), v.getValue(), v.getCost(),
+                    v.getSize());
+            if (data.putIfAbsent(e.getKey(), node) == null) {
+                load += node.getSize();
+                added.add(node);
+            }
+        }
+
+        // Evict once for the combined size, before any new entry is queued
+        while(load > capacity && evict()) {
+            // Keep evicting until the new entries fit
+        }
+        for (MapNode node : added) {
+            lruQueue.pushTail(node);
+        }
+        lock.unlock();
+        return added.size();
+    }
+
+    /** Evicts the least recently used entry. Returns false if none is left */
+    private boolean evict() {
         MapNode node = lruQueue.popHead();
         if (node == null) {
-            return;
+            return false;
         }
 
         load -= node.getSize();
         data.remove(node.getKey());
+        return true;
     }
 }
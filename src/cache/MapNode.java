@@ -1,13 +1,20 @@
 package cache;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /* Struct-like construction of Nodes within Map */
 public class MapNode extends ListNode<MapNode> implements Comparable<MapNode> {
     private final String key, value;
-    private final int cost, size;
-    private int ordering = 0;
+    private final long cost, size;
+    private long ordering = 0;
     private boolean evicted = false;
+    /** Slot within an IndexedHeap, or -1 when not in one */
+    int heapIndex = -1;
+    /** LRU queue within a CampQueue, or null when not in one */
+    CampQueue.Bucket bucket = null;
 
-    public MapNode(String key, String value, int cost, int size) {
+    public MapNode(String key, String value, long cost, long size) {
         super();
         this.key = key;
         this.value = value;
@@ -32,11 +39,36 @@ public class MapNode extends ListNode<MapNode> implements Comparable<MapNode> {
         return value;
     }
 
-    public int getCost() {
+    /** Read-only view of the value's UTF-8 bytes, or null if it is gone.
+     * Subclasses holding bytes return views without copying */
+    public ByteBuffer getValueBytes() {
+        String v = getValue();
+        if (v == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(v.getBytes(StandardCharsets.UTF_8))
+                .asReadOnlyBuffer();
+    }
+
+    /** Copies the value's bytes into dst if it has room, advancing its
+     * position. Returns the value's length either way, or -1 if it is gone */
+    public int readValueBytes(ByteBuffer dst) {
+        ByteBuffer bytes = getValueBytes();
+        if (bytes == null) {
+            return -1;
+        }
+        int length = bytes.remaining();
+        if (dst.remaining() >= length) {
+            dst.put(bytes);
+        }
+        return length;
+    }
+
+    public long getCost() {
         return cost;
     }
 
-    public int getSize() {
+    public long getSize() {
         return size;
     }
 
@@ -44,11 +76,11 @@ public class MapNode extends ListNode<MapNode> implements Comparable<MapNode> {
         return (double) cost / size;
     }
 
-    public int getOrdering() {
+    public long getOrdering() {
         return ordering;
     }
 
-    public void setOrdering(int ordering) {
+    public void setOrdering(long ordering) {
         this.ordering = ordering;
     }
 
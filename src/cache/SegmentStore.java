@@ -0,0 +1,256 @@
+package cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* File-backed second tier for entries demoted from an in-memory cache.
+   Entries are appended to memory-mapped segment files of a fixed size; once
+   there are more than maxSegments, the oldest segment is dropped whole,
+   along with every entry still in it. Taking an entry removes it, since it
+   moves back to the first tier, so a segment's age is the age of the last
+   demotion of each entry in it and dropping the oldest evicts LRU-first at
+   segment granularity. Space freed by takes is only reclaimed when its
+   segment is dropped.
+
+   Keys and locations are indexed on heap; values live only in the files.
+   Appends are serialized by a lock, and takes don't lock at all: a dropped
+   segment's mapping stays readable for whoever still holds it, and nothing
+   is ever written twice to the same place. Thread-safe.
+ */
+public class SegmentStore {
+    private static final int RECORD_HEADER_SIZE = 24;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+
+    private final ConcurrentMap<String, Location> index =
+            new ConcurrentHashMap<>();
+    private final Lock lock = new ReentrantLock();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private Segment current = null;
+    private long nextId = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder failedDemotions = new LongAdder();
+
+    /** Keeps up to maxSegments files of segmentBytes each in directory,
+     * which is created if needed */
+    public SegmentStore(Path directory, int segmentBytes, int maxSegments)
+            throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+    }
+
+    /** Appends an entry, replacing any older copy of its key. Returns false
+     * if it is too large for a segment, if its value is gone, or if segment
+     * files couldn't be created or deleted */
+    public boolean put(MapNode node) {
+        // Bytes as stored, so that values put as bytes come back unchanged
+        ByteBuffer bytes = node.getValueBytes();
+        if (bytes == null) {
+            return false;
+        }
+        byte[] key = node.getKey().getBytes(StandardCharsets.UTF_8);
+        int valueLength = bytes.remaining();
+        int length = RECORD_HEADER_SIZE + key.length + valueLength;
+        if (length > segmentBytes) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            if (current == null ||
+                    current.written + length > segmentBytes) {
+                roll();
+            }
+            Segment s = current;
+            int offset = s.written;
+            s.buffer.putInt(offset, key.length);
+            s.buffer.putInt(offset + 4, valueLength);
+            s.buffer.putLong(offset + 8, node.getCost());
+            s.buffer.putLong(offset + 16, node.getSize());
+            s.buffer.put(offset + RECORD_HEADER_SIZE, key);
+            s.buffer.put(offset + RECORD_HEADER_SIZE + key.length, bytes,
+                    bytes.position(), valueLength);
+            s.written += length;
+            s.keys.add(node.getKey());
+            index.put(node.getKey(), new Location(s, offset));
+        } catch (IOException e) {
+            // Losing a demoted entry only costs a miss
+            failedDemotions.increment();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        demotions.increment();
+        return true;
+    }
+
+    /** Removes key's entry and returns it, or returns null if it isn't
+     * stored */
+    public Entry take(String key) {
+        Location location = index.remove(key);
+        if (location == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return location.read();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /** Entries appended so far */
+    public long demotionCount() {
+        return demotions.sum();
+    }
+
+    /** Entries lost when their segment was dropped */
+    public long dropCount() {
+        return drops.sum();
+    }
+
+    /** Entries not stored because a segment file couldn't be created or
+     * deleted */
+    public long failedDemotionCount() {
+        return failedDemotions.sum();
+    }
+
+    /** Entries currently stored */
+    public int size() {
+        return index.size();
+    }
+
+    /** Drops every entry and deletes the segment files */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            while (!segments.isEmpty()) {
+                drop(segments.pollFirst());
+            }
+            current = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Starts a new segment, dropping the oldest if there are too many.
+     * Expects to hold lock. */
+    private void roll() throws IOException {
+        Path file = directory.resolve("segment-" + (nextId++));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    segmentBytes);
+        }
+        current = new Segment(file, buffer);
+        segments.addLast(current);
+        while (segments.size() > maxSegments) {
+            drop(segments.pollFirst());
+        }
+    }
+
+    /** Unindexes a segment's remaining entries and deletes its file.
+     * Expects to hold lock. */
+    private void drop(Segment segment) throws IOException {
+        for (String key : segment.keys) {
+            // The key may since have been taken, or appended again elsewhere
+            Location location = index.get(key);
+            if (location != null && location.segment == segment &&
+                    index.remove(key, location)) {
+                drops.increment();
+            }
+        }
+        Files.deleteIfExists(segment.file);
+    }
+
+    /* One mapped file. Entries are appended below written */
+    private static class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        final List<String> keys = new ArrayList<>();
+        int written = 0;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /* Where an entry was appended */
+    private static class Location {
+        final Segment segment;
+        final int offset;
+
+        Location(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        Entry read() {
+            MappedByteBuffer buffer = segment.buffer;
+            int keyLength = buffer.getInt(offset);
+            int valueLength = buffer.getInt(offset + 4);
+            ByteBuffer value = buffer.slice(
+                    offset + RECORD_HEADER_SIZE + keyLength, valueLength)
+                    .asReadOnlyBuffer();
+            return new Entry(value, buffer.getLong(offset + 8),
+                    buffer.getLong(offset + 16));
+        }
+    }
+
+    /* An entry taken out of the store. Its value is a view of the segment,
+       which stays readable even once the segment is dropped */
+    public static class Entry {
+        private final ByteBuffer value;
+        private final long cost, size;
+
+        private Entry(ByteBuffer value, long cost, long size) {
+            this.value = value;
+            this.cost = cost;
+            this.size = size;
+        }
+
+        /** Read-only view of the value's bytes, as they were stored */
+        public ByteBuffer getValue() {
+            return value.duplicate();
+        }
+
+        public long getCost() {
+            return cost;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
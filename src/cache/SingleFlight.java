@@ -0,0 +1,64 @@
+package cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/* Runs at most one load per key at a time. Callers that miss on a key while
+   it is being loaded wait for that load and share its result instead of
+   recomputing it. Thread-safe.
+ */
+public class SingleFlight {
+    private final ConcurrentMap<String, CompletableFuture<String>> calls =
+            new ConcurrentHashMap<>();
+
+    /** Returns the value for key, loading it into cache unless another
+     * caller is already doing so. Loader exceptions reach every waiter */
+    public String load(Cache cache, String key, CacheLoader loader) {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> existing = calls.putIfAbsent(key, call);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            // A previous load may have finished between our miss and now
+            String value = cache.get(key);
+            if (value == null) {
+                CacheValue loaded = LatencyCost.measure(loader, key);
+                if (loaded != null) {
+                    value = loaded.getValue();
+                    cache.putIfAbsent(key, value, loaded.getCost(),
+                            loaded.getSize());
+                }
+            }
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /** Number of loads currently in flight */
+    public int inFlight() {
+        return calls.size();
+    }
+
+    private static String await(CompletableFuture<String> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package cache;
+
+import java.util.function.Consumer;
+
+/* Hierarchical timing wheel over the deadlines an Expiry keeps for
+   MapNodes. Each of the four levels has 64 buckets; a level's tick is 64
+   times its predecessor's, from about a second at the bottom to about three
+   days at the top. Scheduling is O(1), and advancing the clock only visits
+   the buckets whose ticks have passed: entries that are due are handed to a
+   consumer, and the others cascade down to a finer level. Expiring entries
+   therefore costs O(expired) rather than a sweep of the cache.
+
+   This class is NOT thread-safe! Any concurrent accesses must be controlled by
+   external synchronization.
+ */
+public class TimerWheel {
+    private static final int BUCKETS = 64;
+    private static final int MASK = BUCKETS - 1;
+    /** log2 of each level's tick in nanoseconds: ~1.07s, ~1.15min, ~1.22h and
+     * ~3.26 days. The top level wraps after ~208 days */
+    private static final int[] SHIFT = {30, 36, 42, 48};
+
+    private final Expiry expiry;
+    /** Sentinels of circular lists, linked through prev/next */
+    private final Deadline[][] wheel = new Deadline[SHIFT.length][BUCKETS];
+    private long nanos;
+
+    /** Schedules the deadlines expiry keeps */
+    public TimerWheel(Expiry expiry, long now) {
+        this.expiry = expiry;
+        nanos = now;
+        for (Deadline[] level : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                Deadline sentinel = new Deadline(null, 0);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                level[i] = sentinel;
+            }
+        }
+    }
+
+    /** Places node according to its deadline, moving it if already placed.
+     * Nodes that never expire are left out */
+    public void schedule(MapNode node) {
+        Deadline deadline = expiry.get(node);
+        if (deadline != null) {
+            schedule(deadline);
+        }
+    }
+
+    /** Moves node after its deadline changed, if it is still placed */
+    public void reschedule(MapNode node) {
+        Deadline deadline = expiry.get(node);
+        if (deadline != null && deadline.next != null) {
+            schedule(deadline);
+        }
+    }
+
+    public void deschedule(MapNode node) {
+        Deadline deadline = expiry.get(node);
+        if (deadline != null) {
+            deschedule(deadline);
+        }
+    }
+
+    /** Moves the clock to now, handing every node that is due to expired */
+    public void advance(long now, Consumer<MapNode> expired) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previous >>> SHIFT[i];
+            long delta = (now >>> SHIFT[i]) - previousTicks;
+            if (delta <= 0) {
+                // Coarser levels can't have ticked either
+                break;
+            }
+            expire(wheel[i], previousTicks, delta, expired);
+        }
+    }
+
+    private void schedule(Deadline deadline) {
+        deschedule(deadline);
+        long expiresAt = deadline.expiresAt;
+        if (expiresAt == 0) {
+            return;
+        }
+        Deadline sentinel = findBucket(expiresAt);
+        Deadline last = sentinel.prev;
+        deadline.prev = last;
+        deadline.next = sentinel;
+        last.next = deadline;
+        sentinel.prev = deadline;
+    }
+
+    private static void deschedule(Deadline deadline) {
+        if (deadline.next == null) {
+            return;
+        }
+        deadline.prev.next = deadline.next;
+        deadline.next.prev = deadline.prev;
+        deadline.prev = null;
+        deadline.next = null;
+    }
+
+    /** Empties the buckets from previousTicks up to delta ticks later */
+    private void expire(Deadline[] level, long previousTicks, long delta,
+                        Consumer<MapNode> expired) {
+        int steps = (int) Math.min(1 + delta, BUCKETS);
+        int start = (int) (previousTicks & MASK);
+        for (int i = start; i < start + steps; i++) {
+            Deadline sentinel = level[i & MASK];
+            Deadline deadline = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+
+            while (deadline != sentinel) {
+                Deadline next = deadline.next;
+                deadline.prev = null;
+                deadline.next = null;
+                if (deadline.expiresAt - nanos <= 0) {
+                    expired.accept(deadline.node);
+                } else {
+                    schedule(deadline);
+                }
+                deadline = next;
+            }
+        }
+    }
+
+    /** Finds the finest level whose range covers time */
+    private Deadline findBucket(long time) {
+        // Overdue nodes go in the current bucket, so they're seen next tick
+        long duration = Math.max(time - nanos, 0);
+        long at = nanos + duration;
+        int last = SHIFT.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < (1L << SHIFT[i + 1])) {
+                return wheel[i][(int) ((at >>> SHIFT[i]) & MASK)];
+            }
+        }
+        return wheel[last][(int) ((at >>> SHIFT[last]) & MASK)];
+    }
+}
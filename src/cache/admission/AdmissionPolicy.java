@@ -2,6 +2,11 @@ package cache.admission;
 
 import cache.MapNode;
 
+/** Decides which new entries a ConcurrentCache keeps. Concurrent caches call
+ *  these methods only while draining their buffers under the cache's lock, so
+ *  implementations see one thread at a time and need no synchronization. An
+ *  instance must therefore not be shared by caches with separate locks, such
+ *  as the segments of a SegmentedCampCache. */
 public interface AdmissionPolicy {
     boolean shouldAdmit(MapNode node, MapNode toEvict);
     void registerRead(MapNode node);
@@ -0,0 +1,41 @@
+package cache.admission;
+
+import cache.MapNode;
+
+/** Admits a candidate only if its expected value, estimated as
+ *  frequency x cost / size, beats that of the entry it would displace. A cheap
+ *  one-hit wonder therefore cannot push out an expensive, popular entry.
+ *  Not thread-safe; callers serialize access. */
+public class CostAwareAdmission implements AdmissionPolicy {
+    private final FrequencySketch sketch;
+
+    /** expectedEntries is the number of entries the cache holds when full,
+     * e.g. its capacity divided by the average entry size */
+    public CostAwareAdmission(long expectedEntries) {
+        sketch = new FrequencySketch(expectedEntries, true);
+    }
+
+    @Override
+    public boolean shouldAdmit(MapNode node, MapNode toEvict) {
+        if (toEvict == null) {
+            return true;
+        }
+        return expectedValue(node) > expectedValue(toEvict);
+    }
+
+    @Override
+    public void registerRead(MapNode node) {
+        sketch.increment(node.getKey());
+    }
+
+    @Override
+    public void registerWrite(MapNode node) {
+        sketch.increment(node.getKey());
+    }
+
+    /** Cost saved per unit of space. Frequencies are smoothed by one so an
+     * unseen entry is still valued by its cost */
+    private double expectedValue(MapNode node) {
+        return (sketch.frequency(node.getKey()) + 1) * node.getCsr();
+    }
+}
@@ -0,0 +1,160 @@
+package cache.admission;
+
+/* Count-Min sketch of 4-bit counters, sized from the number of entries the
+   cache holds. Each long packs sixteen counters; an item uses one counter in
+   each of four longs. Once the sketch has recorded ten increments per entry,
+   every counter is halved so that old popularity fades.
+
+   An optional doorkeeper, a bloom filter in front of the counters, absorbs
+   the first occurrence of each key so one-hit wonders don't occupy counters.
+   It is cleared on every halving.
+
+   This class is NOT thread-safe! Any concurrent accesses must be controlled by
+   external synchronization.
+ */
+public class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size = 0; // Increments since the last halving
+
+    /** Bloom filter bits, or null when the doorkeeper is disabled */
+    private final long[] doorkeeper;
+    private final int doorkeeperMask;
+
+    public FrequencySketch(long expectedEntries, boolean useDoorkeeper) {
+        int maximum = (int) Math.min(Math.max(expectedEntries, 1), 1 << 30);
+        table = new long[ceilingNextPowerOfTwo(maximum)];
+        tableMask = table.length - 1;
+        sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+
+        if (useDoorkeeper) {
+            // Roughly eight bits per entry
+            doorkeeper = new long[Math.max(1, table.length / 8)];
+            doorkeeperMask = (doorkeeper.length << 6) - 1;
+        } else {
+            doorkeeper = null;
+            doorkeeperMask = 0;
+        }
+    }
+
+    public FrequencySketch(long expectedEntries) {
+        this(expectedEntries, false);
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        // From CLHM source code
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    /** Estimated number of occurrences of key, at most 15 (16 with the
+     * doorkeeper) */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+
+        if (doorkeeper != null && doorkeeperContains(hash)) {
+            frequency++;
+        }
+        return frequency;
+    }
+
+    /** Records an occurrence of key */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        if (doorkeeper != null && !doorkeeperPut(hash)) {
+            // First sighting since the last halving
+            return;
+        }
+
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /** Increments the j-th counter of table[i] unless it is saturated */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** Halves every counter and clears the doorkeeper */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+
+        if (doorkeeper != null) {
+            for (int i = 0; i < doorkeeper.length; i++) {
+                doorkeeper[i] = 0;
+            }
+        }
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += (h >>> 32);
+        return (int) h & tableMask;
+    }
+
+    /** Sets the key's bits. Returns whether they were all set already */
+    private boolean doorkeeperPut(int hash) {
+        boolean present = true;
+        for (int i = 0; i < 3; i++) {
+            int bit = doorkeeperBit(hash, i);
+            long mask = 1L << bit;
+            if ((doorkeeper[bit >>> 6] & mask) == 0) {
+                doorkeeper[bit >>> 6] |= mask;
+                present = false;
+            }
+        }
+        return present;
+    }
+
+    private boolean doorkeeperContains(int hash) {
+        for (int i = 0; i < 3; i++) {
+            int bit = doorkeeperBit(hash, i);
+            if ((doorkeeper[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int doorkeeperBit(int hash, int i) {
+        // Reuses the sketch's seeds, rotated so the bits differ from indexOf
+        long h = (hash + SEEDS[i]) * SEEDS[(i + 1) & 3];
+        return (int) (h >>> 32) & doorkeeperMask;
+    }
+
+    /** Strong integer mix, so that weak hashCode()s spread over the table */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -2,13 +2,16 @@ package cache.admission;
 
 import cache.MapNode;
 
-/** Basic version of TinyLFU */
+/** Basic version of TinyLFU. See TinyLfuAdmission for a full one */
 public class SimpleLFU implements AdmissionPolicy {
     private final CountingBF bf = new CountingBF();
     @Override
     public boolean shouldAdmit(MapNode node, MapNode toEvict) {
+        if (toEvict == null) {
+            return true;
+        }
         short newCount = bf.estimate(node.getKey());
-        short evictCount = bf.estimate(node.getKey());
+        short evictCount = bf.estimate(toEvict.getKey());
 
         return newCount >= evictCount;
     }
@@ -0,0 +1,38 @@
+package cache.admission;
+
+import cache.MapNode;
+
+/** TinyLFU: admits a candidate only if it has been seen more often than the
+ *  entry it would displace. Not thread-safe; callers serialize access. */
+public class TinyLfuAdmission implements AdmissionPolicy {
+    private final FrequencySketch sketch;
+
+    /** expectedEntries is the number of entries the cache holds when full,
+     * e.g. its capacity divided by the average entry size */
+    public TinyLfuAdmission(long expectedEntries, boolean useDoorkeeper) {
+        sketch = new FrequencySketch(expectedEntries, useDoorkeeper);
+    }
+
+    public TinyLfuAdmission(long expectedEntries) {
+        this(expectedEntries, true);
+    }
+
+    @Override
+    public boolean shouldAdmit(MapNode node, MapNode toEvict) {
+        if (toEvict == null) {
+            return true;
+        }
+        return sketch.frequency(node.getKey()) >
+                sketch.frequency(toEvict.getKey());
+    }
+
+    @Override
+    public void registerRead(MapNode node) {
+        sketch.increment(node.getKey());
+    }
+
+    @Override
+    public void registerWrite(MapNode node) {
+        sketch.increment(node.getKey());
+    }
+}
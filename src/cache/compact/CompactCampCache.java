@@ -0,0 +1,294 @@
+package cache.compact;
+
+import cache.Cache;
+import cache.CacheLoader;
+import cache.CampQueue;
+import cache.SingleFlight;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static cache.compact.SlotTable.NIL;
+
+/** CampCache over a SlotTable. Entries live in primitive arrays; each
+ *  entry's group is the bucket (LRU queue) it belongs to, and buckets are
+ *  themselves numbered, with their heads ordered by a heap of bucket numbers.
+ *  Eviction order matches CampCache's, except among entries whose orderings
+ *  tie. */
+public class CompactCampCache implements Cache {
+    private final SlotTable table;
+    private final int precision;
+
+    /** Buckets by number. Free numbers are chained through bucketHead */
+    private long[] bucketPriority = new long[16];
+    private int[] bucketHead = new int[16];
+    private int[] bucketTail = new int[16];
+    private int[] bucketHeapIndex = new int[16];
+    private int bucketsUsed = 0;
+    private int freeBucket = NIL;
+    private final Map<Long, Integer> buckets = new HashMap<>();
+
+    /** Min-heap of non-empty bucket numbers, by the ordering of their heads */
+    private int[] heap = new int[16];
+    private int heapSize = 0;
+
+    private final Lock lock = new ReentrantLock();
+    private final SingleFlight loads = new SingleFlight();
+
+    private final long capacity;
+    private long load = 0; // Represents amount of data currently in Cache
+
+    /** initialEntries sizes the arrays up front; they grow past it anyway */
+    public CompactCampCache(long capacity, int precision, int initialEntries) {
+        this.capacity = capacity;
+        this.precision = precision;
+        table = new SlotTable(initialEntries);
+    }
+
+    /** Initializes CompactCampCache with default precision of 5 */
+    public CompactCampCache(long capacity) {
+        this(capacity, 5, 16);
+    }
+
+    @Override
+    public String get(String key) {
+        lock.lock();
+        int slot = table.find(key);
+        String value = null;
+        if (slot != NIL) {
+            refresh(slot);
+            value = table.values[slot];
+        }
+        lock.unlock();
+        return value;
+    }
+
+    @Override
+    public String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return loads.load(this, key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        lock.lock();
+        if (table.find(key) != NIL) {
+            lock.unlock();
+            return false;
+        }
+
+        while(load > capacity && evict()) {
+            // Keep evicting until back under capacity
+        }
+
+        load += size;
+        push(table.insert(key, value, cost, size));
+        lock.unlock();
+        return true;
+    }
+
+    /** Evicts the entry at the top of the heap. Returns false if none is left */
+    private boolean evict() {
+        if (heapSize == 0) {
+            return false;
+        }
+
+        int slot = bucketHead[heap[0]];
+        unlink(slot);
+        load -= table.sizes[slot];
+        table.remove(slot);
+        return true;
+    }
+
+    /** Places a new slot at the tail of its bucket */
+    private void push(int slot) {
+        long priority = CampQueue.calculatePriority(table.costs[slot],
+                table.sizes[slot], precision);
+        Integer b = buckets.get(priority);
+        if (b == null) {
+            b = allocateBucket(priority);
+            buckets.put(priority, b);
+        }
+        append(slot, b);
+    }
+
+    /** Moves a slot to the tail of its bucket */
+    private void refresh(int slot) {
+        int b = table.groups[slot];
+        boolean wasHead = (bucketHead[b] == slot);
+        detach(slot, b);
+        if (wasHead) {
+            heapRemove(b);
+            if (bucketHead[b] != NIL) {
+                heapOffer(b);
+            }
+        }
+        append(slot, b);
+    }
+
+    /** Adds an unlinked slot to the tail of bucket b */
+    private void append(int slot, int b) {
+        boolean isEmpty = (bucketHead[b] == NIL);
+        table.orderings[slot] = getBasePriority() + bucketPriority[b];
+        table.groups[slot] = b;
+        table.next[slot] = NIL;
+        table.prev[slot] = bucketTail[b];
+        if (isEmpty) {
+            bucketHead[b] = slot;
+        } else {
+            table.next[bucketTail[b]] = slot;
+        }
+        bucketTail[b] = slot;
+        if (isEmpty) {
+            heapOffer(b);
+        }
+    }
+
+    /** Takes a slot out of its bucket, dropping the bucket if it empties */
+    private void unlink(int slot) {
+        int b = table.groups[slot];
+        boolean wasHead = (bucketHead[b] == slot);
+        detach(slot, b);
+        if (!wasHead) {
+            return;
+        }
+
+        // The head changed, so the bucket's place in the heap did too
+        if (bucketHead[b] == NIL) {
+            heapRemove(b);
+            buckets.remove(bucketPriority[b]);
+            freeBucket(b);
+        } else {
+            // Orderings within a bucket only grow toward its tail
+            siftDown(bucketHeapIndex[b]);
+        }
+    }
+
+    /** Takes a slot out of bucket b's list, leaving the heap alone */
+    private void detach(int slot, int b) {
+        int p = table.prev[slot];
+        int n = table.next[slot];
+        if (p == NIL) {
+            bucketHead[b] = n;
+        } else {
+            table.next[p] = n;
+        }
+        if (n == NIL) {
+            bucketTail[b] = p;
+        } else {
+            table.prev[n] = p;
+        }
+        table.prev[slot] = NIL;
+        table.next[slot] = NIL;
+        table.groups[slot] = NIL;
+    }
+
+    private long getBasePriority() {
+        return (heapSize == 0) ? 0 : table.orderings[bucketHead[heap[0]]];
+    }
+
+    private int allocateBucket(long priority) {
+        int b;
+        if (freeBucket != NIL) {
+            b = freeBucket;
+            freeBucket = bucketHead[b];
+        } else {
+            if (bucketsUsed == bucketPriority.length) {
+                int n = 2 * bucketsUsed;
+                bucketPriority = Arrays.copyOf(bucketPriority, n);
+                bucketHead = Arrays.copyOf(bucketHead, n);
+                bucketTail = Arrays.copyOf(bucketTail, n);
+                bucketHeapIndex = Arrays.copyOf(bucketHeapIndex, n);
+            }
+            b = bucketsUsed++;
+        }
+        bucketPriority[b] = priority;
+        bucketHead[b] = NIL;
+        bucketTail[b] = NIL;
+        bucketHeapIndex[b] = NIL;
+        return b;
+    }
+
+    private void freeBucket(int b) {
+        bucketHead[b] = freeBucket;
+        freeBucket = b;
+    }
+
+    private long headOrdering(int b) {
+        return table.orderings[bucketHead[b]];
+    }
+
+    private void heapOffer(int b) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, 2 * heapSize);
+        }
+        heap[heapSize] = b;
+        bucketHeapIndex[b] = heapSize;
+        heapSize++;
+        siftUp(heapSize - 1);
+    }
+
+    private void heapRemove(int b) {
+        int index = bucketHeapIndex[b];
+        bucketHeapIndex[b] = NIL;
+        heapSize--;
+        if (index == heapSize) {
+            return;
+        }
+
+        // Fill the hole with the last bucket, then restore the heap property
+        int last = heap[heapSize];
+        heap[index] = last;
+        bucketHeapIndex[last] = index;
+        siftDown(index);
+        if (heap[index] == last) {
+            siftUp(index);
+        }
+    }
+
+    private void siftUp(int index) {
+        int b = heap[index];
+        long ordering = headOrdering(b);
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int p = heap[parent];
+            if (ordering >= headOrdering(p)) {
+                break;
+            }
+            heap[index] = p;
+            bucketHeapIndex[p] = index;
+            index = parent;
+        }
+        heap[index] = b;
+        bucketHeapIndex[b] = index;
+    }
+
+    private void siftDown(int index) {
+        int b = heap[index];
+        long ordering = headOrdering(b);
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize &&
+                    headOrdering(heap[right]) < headOrdering(heap[child])) {
+                child = right;
+            }
+            int c = heap[child];
+            if (ordering <= headOrdering(c)) {
+                break;
+            }
+            heap[index] = c;
+            bucketHeapIndex[c] = index;
+            index = child;
+        }
+        heap[index] = b;
+        bucketHeapIndex[b] = index;
+    }
+}
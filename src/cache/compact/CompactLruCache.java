@@ -0,0 +1,124 @@
+package cache.compact;
+
+import cache.Cache;
+import cache.CacheLoader;
+import cache.SingleFlight;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static cache.compact.SlotTable.NIL;
+
+/** LruCache over a SlotTable: the same policy, but entries live in primitive
+ *  arrays linked by slot number rather than as MapNodes in a HashMap. */
+public class CompactLruCache implements Cache {
+    private final SlotTable table;
+    private int head = NIL, tail = NIL;
+
+    private final Lock lock = new ReentrantLock();
+    private final SingleFlight loads = new SingleFlight();
+
+    private final long capacity;
+    private long load = 0; // Represents amount currently in Cache
+
+    /** initialEntries sizes the arrays up front; they grow past it anyway */
+    public CompactLruCache(long capacity, int initialEntries) {
+        this.capacity = capacity;
+        table = new SlotTable(initialEntries);
+    }
+
+    public CompactLruCache(long capacity) {
+        this(capacity, 16);
+    }
+
+    @Override
+    public String get(String key) {
+        lock.lock();
+        int slot = table.find(key);
+        String value = null;
+        if (slot != NIL) {
+            moveTail(slot);
+            value = table.values[slot];
+        }
+        lock.unlock();
+        return value;
+    }
+
+    @Override
+    public String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return loads.load(this, key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        lock.lock();
+        // If we already contain key, ignore
+        if (table.find(key) != NIL) {
+            lock.unlock();
+            return false;
+        }
+
+        load += size;
+        while(load > capacity && evict()) {
+            // Keep evicting until the new entry fits
+        }
+
+        pushTail(table.insert(key, value, cost, size));
+        lock.unlock();
+        return true;
+    }
+
+    /** Evicts the least recently used entry. Returns false if none is left */
+    private boolean evict() {
+        int slot = head;
+        if (slot == NIL) {
+            return false;
+        }
+
+        unlink(slot);
+        load -= table.sizes[slot];
+        table.remove(slot);
+        return true;
+    }
+
+    private void pushTail(int slot) {
+        table.prev[slot] = tail;
+        table.next[slot] = NIL;
+        if (tail == NIL) {
+            head = slot;
+        } else {
+            table.next[tail] = slot;
+        }
+        tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = table.prev[slot];
+        int n = table.next[slot];
+        if (p == NIL) {
+            head = n;
+        } else {
+            table.next[p] = n;
+        }
+        if (n == NIL) {
+            tail = p;
+        } else {
+            table.prev[n] = p;
+        }
+        table.prev[slot] = NIL;
+        table.next[slot] = NIL;
+    }
+
+    private void moveTail(int slot) {
+        // If already at end, don't bother with extra ops
+        if (slot == tail) {
+            return;
+        }
+        unlink(slot);
+        pushTail(slot);
+    }
+}
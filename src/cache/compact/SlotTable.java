@@ -0,0 +1,189 @@
+package cache.compact;
+
+import java.util.Arrays;
+
+/* Entry storage as parallel arrays indexed by slot number, in place of one
+   MapNode per entry. Each slot has prev/next links and a group number that
+   its owner uses for its own lists; a free slot's next link chains the free
+   list, so removed slots are reused before the arrays grow. Keys are found
+   through an open-addressing index of slot numbers, probed linearly and kept
+   at most half full.
+
+   This class is NOT thread-safe! Any concurrent accesses must be controlled by
+   external synchronization.
+ */
+class SlotTable {
+    static final int NIL = -1;
+
+    /** Per-slot fields */
+    String[] keys;
+    String[] values;
+    long[] costs;
+    long[] sizes;
+    long[] orderings;
+    int[] prev;
+    int[] next;
+    int[] groups;
+    private int[] hashes;
+
+    /** Slot numbers by key hash, NIL where empty */
+    private int[] index;
+    private int indexMask;
+
+    private int used = 0; // Slots below this number have been handed out
+    private int freeHead = NIL;
+    private int count = 0;
+
+    SlotTable(int initialSlots) {
+        int slots = Math.max(16, initialSlots);
+        keys = new String[slots];
+        values = new String[slots];
+        costs = new long[slots];
+        sizes = new long[slots];
+        orderings = new long[slots];
+        prev = new int[slots];
+        next = new int[slots];
+        groups = new int[slots];
+        hashes = new int[slots];
+
+        index = new int[ceilingNextPowerOfTwo(2 * slots)];
+        Arrays.fill(index, NIL);
+        indexMask = index.length - 1;
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        // From CLHM source code
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    /** Returns key's slot, or NIL if it isn't stored */
+    int find(String key) {
+        int hash = spread(key.hashCode());
+        for (int i = hash & indexMask; ; i = (i + 1) & indexMask) {
+            int slot = index[i];
+            if (slot == NIL) {
+                return NIL;
+            }
+            if (hashes[slot] == hash && keys[slot].equals(key)) {
+                return slot;
+            }
+        }
+    }
+
+    /** Stores an entry whose key is absent, returning its unlinked slot */
+    int insert(String key, String value, long cost, long size) {
+        if (2 * (count + 1) > index.length) {
+            resizeIndex();
+        }
+
+        int slot = allocate();
+        int hash = spread(key.hashCode());
+        keys[slot] = key;
+        values[slot] = value;
+        costs[slot] = cost;
+        sizes[slot] = size;
+        orderings[slot] = 0;
+        prev[slot] = NIL;
+        next[slot] = NIL;
+        groups[slot] = NIL;
+        hashes[slot] = hash;
+
+        int i = hash & indexMask;
+        while (index[i] != NIL) {
+            i = (i + 1) & indexMask;
+        }
+        index[i] = slot;
+        count++;
+        return slot;
+    }
+
+    /** Drops a slot's entry and frees the slot. It must be unlinked */
+    void remove(int slot) {
+        int i = hashes[slot] & indexMask;
+        while (index[i] != slot) {
+            i = (i + 1) & indexMask;
+        }
+        deleteAt(i);
+
+        keys[slot] = null;
+        values[slot] = null;
+        next[slot] = freeHead;
+        freeHead = slot;
+        count--;
+    }
+
+    int size() {
+        return count;
+    }
+
+    private int allocate() {
+        if (freeHead != NIL) {
+            int slot = freeHead;
+            freeHead = next[slot];
+            return slot;
+        }
+        if (used == keys.length) {
+            grow();
+        }
+        return used++;
+    }
+
+    private void grow() {
+        int slots = 2 * keys.length;
+        keys = Arrays.copyOf(keys, slots);
+        values = Arrays.copyOf(values, slots);
+        costs = Arrays.copyOf(costs, slots);
+        sizes = Arrays.copyOf(sizes, slots);
+        orderings = Arrays.copyOf(orderings, slots);
+        prev = Arrays.copyOf(prev, slots);
+        next = Arrays.copyOf(next, slots);
+        groups = Arrays.copyOf(groups, slots);
+        hashes = Arrays.copyOf(hashes, slots);
+    }
+
+    private void resizeIndex() {
+        int[] old = index;
+        index = new int[2 * old.length];
+        Arrays.fill(index, NIL);
+        indexMask = index.length - 1;
+        for (int slot : old) {
+            if (slot == NIL) {
+                continue;
+            }
+            int i = hashes[slot] & indexMask;
+            while (index[i] != NIL) {
+                i = (i + 1) & indexMask;
+            }
+            index[i] = slot;
+        }
+    }
+
+    /** Empties index position i, shifting later entries of its probe run
+     * back so that no lookup stops early (no tombstones needed) */
+    private void deleteAt(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & indexMask;
+            int slot = index[j];
+            if (slot == NIL) {
+                break;
+            }
+            // Move slot into the hole unless its home lies cyclically in (i, j]
+            int home = hashes[slot] & indexMask;
+            boolean movable = (i <= j) ? (home <= i || home > j) :
+                    (home <= i && home > j);
+            if (movable) {
+                index[i] = slot;
+                i = j;
+            }
+        }
+        index[i] = NIL;
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+}
@@ -0,0 +1,13 @@
+package cache.compress;
+
+import java.nio.ByteBuffer;
+
+/* Compresses cached values. Implementations must be thread-safe. */
+public interface Codec {
+    /** Returns data compressed, or null if that wouldn't make it smaller */
+    byte[] compress(byte[] data);
+
+    /** Decompresses data into dst, which has exactly the original length
+     * remaining */
+    void decompress(byte[] data, ByteBuffer dst);
+}
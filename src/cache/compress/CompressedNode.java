@@ -0,0 +1,56 @@
+package cache.compress;
+
+import cache.MapNode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* MapNode holding its value compressed. Every read decompresses it: String
+   and view reads into a new array, copying reads straight into the caller's
+   buffer. */
+public class CompressedNode extends MapNode {
+    private final Codec codec;
+    private final byte[] data;
+    private final int length;
+
+    CompressedNode(String key, long cost, long size, Codec codec, byte[] data,
+                   int length) {
+        super(key, null, cost, size);
+        this.codec = codec;
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public String getValue() {
+        return new String(decompress(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ByteBuffer getValueBytes() {
+        return ByteBuffer.wrap(decompress()).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readValueBytes(ByteBuffer dst) {
+        if (dst.remaining() >= length) {
+            // Limit dst to the value, so the codec can't write past it
+            ByteBuffer slice = dst.slice();
+            slice.limit(length);
+            codec.decompress(data, slice);
+            dst.position(dst.position() + length);
+        }
+        return length;
+    }
+
+    /** Length of the compressed value in bytes */
+    public int getCompressedLength() {
+        return data.length;
+    }
+
+    private byte[] decompress() {
+        byte[] bytes = new byte[length];
+        codec.decompress(data, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+}
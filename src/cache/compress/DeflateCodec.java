@@ -0,0 +1,89 @@
+package cache.compress;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/* Codec using the JDK's Deflater, without zlib headers. Deflaters and
+   Inflaters hold native memory that is slow to allocate, so each call
+   borrows one from a small bounded pool and returns it afterwards. Calls
+   beyond the pool's size, as from a burst of virtual threads, use a
+   temporary instance that is ended straight away rather than kept. */
+public class DeflateCodec implements Codec {
+    private final int level;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+
+    /** level is a Deflater level, from BEST_SPEED to BEST_COMPRESSION.
+     * poolSize bounds the instances of each kind kept between calls */
+    public DeflateCodec(int level, int poolSize) {
+        this.level = level;
+        deflaters = new ArrayBlockingQueue<>(poolSize);
+        inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /** Keeps two instances of each kind per CPU */
+    public DeflateCodec(int level) {
+        this(level, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public DeflateCodec() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        if (data.length <= 1) {
+            return null;
+        }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            // Anything not smaller isn't worth keeping, so stop there
+            byte[] out = new byte[data.length - 1];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(byte[] data, ByteBuffer dst) {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(data);
+            while (dst.hasRemaining() && !inflater.finished()) {
+                inflater.inflate(dst);
+            }
+        } catch (DataFormatException e) {
+            // Only ever given what compress returned
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package cache.compress;
+
+import cache.MapNode;
+
+import java.nio.charset.StandardCharsets;
+
+/* Decides which values to compress, and how to charge them. Values of at
+   least minLength bytes are compressed with codec, and kept so if that makes
+   them smaller. A compressed entry's size is scaled by its compression ratio,
+   so it takes up only what it really occupies. Each hit on it also has to
+   pay to decompress it, which is worth less than a miss by that much, so its
+   cost is reduced by decodeCost per KB of original value, down to 0.
+   Thread-safe if codec is.
+ */
+public class ValueCompressor {
+    private final Codec codec;
+    private final int minLength;
+    private final long decodeCost;
+
+    public ValueCompressor(Codec codec, int minLength, long decodeCost) {
+        this.codec = codec;
+        this.minLength = minLength;
+        this.decodeCost = decodeCost;
+    }
+
+    /** Compresses values of at least minLength bytes, at no charge for
+     * decompressing them */
+    public ValueCompressor(Codec codec, int minLength) {
+        this(codec, minLength, 0);
+    }
+
+    /** Returns a node holding value compressed, or null if it is too short
+     * or doesn't compress. Strings shorter than minLength characters are
+     * skipped without encoding them */
+    public MapNode compress(String key, String value, long cost, long size) {
+        if (value == null || value.length() < minLength) {
+            return null;
+        }
+        return compress(key, value.getBytes(StandardCharsets.UTF_8), cost,
+                size);
+    }
+
+    /** Like compress(key, String, cost, size), with the value as bytes */
+    public MapNode compress(String key, byte[] value, long cost, long size) {
+        byte[] data = encode(value);
+        if (data == null) {
+            return null;
+        }
+        long compressedSize = Math.max(1,
+                (long) (size * ((double) data.length / value.length)));
+        long chargedCost = Math.max(0,
+                cost - decodeCost * value.length / 1024);
+        return new CompressedNode(key, chargedCost, compressedSize, codec,
+                data, value.length);
+    }
+
+    /** Like compress, for a value that compress already charged, such as
+     * one paged back in from a snapshot or a second tier. Its cost and size
+     * are kept as they are, so that they aren't discounted twice */
+    public MapNode recompress(String key, byte[] value, long cost,
+                              long size) {
+        byte[] data = encode(value);
+        return (data == null) ? null :
+                new CompressedNode(key, cost, size, codec, data, value.length);
+    }
+
+    /** Compresses value, or returns null if it is too short or doesn't
+     * compress */
+    private byte[] encode(byte[] value) {
+        return (value.length < minLength) ? null : codec.compress(value);
+    }
+}
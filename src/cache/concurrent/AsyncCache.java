@@ -0,0 +1,94 @@
+package cache.concurrent;
+
+import cache.Cache;
+import cache.CacheLoader;
+import cache.CacheValue;
+import cache.LatencyCost;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/** CompletableFuture view over a concurrent cache. A miss starts at most one
+ *  load per key on the executor, and the in-flight future stands in for the
+ *  entry until the load completes. Only then is the value inserted, with the
+ *  cost and size the loader reported, so it enters the eviction queues with
+ *  its real weight rather than a placeholder's. */
+public class AsyncCache {
+    private final Cache cache;
+    private final Executor executor;
+
+    /** Futures of loads that haven't been inserted into cache yet */
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlight =
+            new ConcurrentHashMap<>();
+
+    public AsyncCache(Cache cache, Executor executor) {
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /** Runs loaders on virtual threads where the JDK has them */
+    public AsyncCache(Cache cache) {
+        this(cache, CacheExecutors.loaders());
+    }
+
+    /** Returns the cached value, the in-flight load of key, or a new load */
+    public CompletableFuture<String> getAsync(String key, CacheLoader loader) {
+        CompletableFuture<String> future = getIfPresent(key);
+        if (future != null) {
+            return future;
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        future = inFlight.putIfAbsent(key, created);
+        if (future != null) {
+            return future;
+        }
+
+        try {
+            executor.execute(() -> load(key, loader, created));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /** Returns the cached value or in-flight load of key, or null if neither */
+    public CompletableFuture<String> getIfPresent(String key) {
+        String value = cache.get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        return inFlight.get(key);
+    }
+
+    /** Number of loads currently in flight */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private void load(String key, CacheLoader loader,
+                      CompletableFuture<String> future) {
+        try {
+            // A previous load may have been inserted after our miss
+            String value = cache.get(key);
+            if (value == null) {
+                CacheValue loaded = LatencyCost.measure(loader, key);
+                if (loaded != null) {
+                    value = loaded.getValue();
+                    cache.putIfAbsent(key, value, loaded.getCost(),
+                            loaded.getSize());
+                }
+            }
+            // Insert before retiring the future, so callers always find one
+            inFlight.remove(key, future);
+            future.complete(value);
+        } catch (Throwable t) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package cache.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** Executors for work the caches run off the caller's thread */
+public final class CacheExecutors {
+    private CacheExecutors() {}
+
+    /** Lazily started, shared by every cache that uses it */
+    private static final class Background {
+        static final Executor INSTANCE = Executors.newSingleThreadExecutor(
+                daemonThreads("cache-maintenance"));
+    }
+
+    /** Lazily started, shared by every cache that uses it */
+    private static final class Loaders {
+        static final Executor INSTANCE = Executors.newCachedThreadPool(
+                daemonThreads("cache-loader"));
+    }
+
+    /** A single daemon thread shared by all caches */
+    public static Executor background() {
+        return Background.INSTANCE;
+    }
+
+    /** A new virtual-thread-per-task executor. Virtual threads need JDK 21,
+     * so older runtimes get the shared background thread instead */
+    public static Executor virtualThreads() {
+        Executor virtual = newVirtualThreadExecutor();
+        return (virtual != null) ? virtual : background();
+    }
+
+    /** An executor for cache loaders, which may block for a long time: a new
+     * virtual-thread-per-task executor, or before JDK 21 a shared, unbounded
+     * pool of daemon threads */
+    public static Executor loaders() {
+        Executor virtual = newVirtualThreadExecutor();
+        return (virtual != null) ? virtual : Loaders.INSTANCE;
+    }
+
+    /** Looked up reflectively so that this builds on JDKs before 21 */
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            Method factory =
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (Executor) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,142 @@
+package cache.concurrent;
+
+import cache.Cache;
+import cache.CampQueue;
+import cache.MapNode;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Cost-aware CLOCK. A hit refills the entry's credit, a small counter that
+ *  grows with the log of its cost-to-size ratio, with one plain store. A
+ *  single hand sweeps the entries on insert, spending one credit per entry
+ *  passed and evicting the first entry that has none left. Expensive entries
+ *  therefore survive more sweeps without being touched, as in CAMP, but reads
+ *  need no buffers or lock. */
+public class ClockCampCache implements Cache {
+    /** Credit given to the most valuable entries */
+    private static final int MAX_CREDIT = 15;
+    private static final int INITIAL_SLOTS = 1024;
+
+    /** Backing Map */
+    private final ConcurrentHashMap<String, ClockNode> data;
+
+    /** Lock controlling access to the clock, free slots and load */
+    private final Lock lock = new ReentrantLock();
+
+    /** Entries in clock order. Null slots are listed in freeSlots */
+    private ClockNode[] clock = new ClockNode[INITIAL_SLOTS];
+    private int used = 0; // Slots below this index have been handed out
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int numFree = 0;
+    private int hand = 0;
+
+    /** Amount of data currently in cache versus what's allowed */
+    private final long capacity;
+    private long load = 0;
+
+    public ClockCampCache(long capacity, int concurrency) {
+        this.capacity = capacity;
+        data = new ConcurrentHashMap<>(
+                ConcurrentCache.DEFAULT_INITIAL_ENTRIES, 0.5f, concurrency);
+    }
+
+    @Override
+    public String get(String key) {
+        ClockNode result = data.get(key);
+        if (result == null) {
+            return null;
+        }
+
+        // Skip the store when already full, to keep the line clean
+        if (result.credit != result.maxCredit) {
+            result.credit = result.maxCredit;
+        }
+        return result.getValue();
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        ClockNode node = new ClockNode(key, value, cost, size);
+        if (data.putIfAbsent(key, node) != null) {
+            return false;
+        }
+
+        lock.lock();
+        load += size;
+        while (load > capacity) {
+            if (!evictOne()) {
+                break;
+            }
+        }
+        insert(node);
+        lock.unlock();
+        return true;
+    }
+
+    /** Places a node into a free slot, growing the clock if there is none.
+     * Expects to hold lock. */
+    private void insert(ClockNode node) {
+        int slot;
+        if (numFree > 0) {
+            slot = freeSlots[--numFree];
+        } else {
+            if (used == clock.length) {
+                clock = Arrays.copyOf(clock, 2 * clock.length);
+                freeSlots = Arrays.copyOf(freeSlots, clock.length);
+            }
+            slot = used++;
+        }
+        clock[slot] = node;
+    }
+
+    /** Advances the hand to the first entry out of credit and evicts it.
+     * Expects to hold lock. */
+    private boolean evictOne() {
+        if (used == numFree) {
+            return false;
+        }
+
+        // Readers may keep refilling credits; after enough full sweeps, evict
+        // whatever is under the hand
+        long limit = (long) (MAX_CREDIT + 1) * used;
+        for (long i = 0; ; i++) {
+            ClockNode node = clock[hand];
+            if (node != null) {
+                if (node.credit <= 0 || i >= limit) {
+                    clock[hand] = null;
+                    freeSlots[numFree++] = hand;
+                    hand = (hand + 1) % used;
+                    remove(node);
+                    return true;
+                }
+                node.credit--;
+            }
+            hand = (hand + 1) % used;
+        }
+    }
+
+    private void remove(ClockNode node) {
+        node.setEvicted();
+        if (data.remove(node.getKey(), node)) {
+            load -= node.getSize();
+        }
+    }
+
+    /* MapNode with a CLOCK credit counter */
+    private static final class ClockNode extends MapNode {
+        final int maxCredit;
+        int credit;
+
+        ClockNode(String key, String value, long cost, long size) {
+            super(key, value, cost, size);
+            // One credit per power of two of the rounded cost-to-size ratio
+            long priority = CampQueue.calculatePriority(cost, size, 1);
+            int bits = Long.SIZE - Long.numberOfLeadingZeros(priority);
+            maxCredit = Math.min(MAX_CREDIT, 1 + bits);
+            credit = maxCredit;
+        }
+    }
+}
@@ -1,199 +1,589 @@
 package cache.concurrent;
 
+import cache.BytesNode;
 import cache.Cache;
+import cache.CacheLoader;
+import cache.CacheValue;
+import cache.Expiry;
 import cache.MapNode;
+import cache.SingleFlight;
+import cache.TimerWheel;
+import cache.compress.ValueCompressor;
+import cache.offheap.SlabAllocator;
+import cache.offheap.SlabNode;
 import cache.admission.AdmissionPolicy;
 import cache.admission.IdlePolicy;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /* Design inspiration from ConcurrentLinkedHashMap */
 public abstract class ConcurrentCache implements Cache {
-    /** Buffer thresholds and size. */
-    private static final int READ_THRESHOLD = 32;
-    private static final int READ_MAX_DRAIN = 2 * READ_THRESHOLD;
-    private static final int READ_BUFFER_SIZE = 4 * READ_MAX_DRAIN;
-    private static final int READ_MASK = READ_BUFFER_SIZE - 1;
-
     /** The maximum number of write operations to perform per amortized drain. */
     private static final int WRITE_MAX_DRAIN = 16;
 
+    /** The maximum number of entries evicted by one call to evict(). After
+     * the capacity shrinks, the excess is worked off over several drains */
+    static final int EVICT_MAX_DRAIN = 256;
+
+    /** Default bound on writes waiting to be applied. This bounds how far the
+     * cache may overshoot its capacity before evictions catch up */
+    static final int DEFAULT_WRITE_BUFFER_SIZE = 1024;
+
+    /** Number of entries the backing map is sized for up front */
+    static final int DEFAULT_INITIAL_ENTRIES = 200000;
+
     /** Backing Map */
     final Map<String, MapNode> data;
 
     /** Lock controlling access to the above lruQueue */
     final Lock lock = new ReentrantLock();
 
-    /** Amount of data currently in cache versus what's allowed */
-    final int capacity;
-    final AtomicInteger load = new AtomicInteger(0);
+    /** Amount of data currently in cache versus what's allowed. load is only
+     * written by drains, under lock, so it needs no atomic updates; it is
+     * volatile for readers outside lock */
+    volatile long capacity;
+    volatile long load = 0;
 
-    /** Buffers and their counters */
-    private final int numBuffers;
-    private final AtomicReference<MapNode>[][] buffers;
-    private final long[] bufferReadPointer;
-    private final AtomicLong[] bufferWritePointer;
-    private final Queue<MapNode> writeBuffer;
+    /** Buffers of reads and writes waiting to be applied */
+    private final ReadBuffer readBuffer = new ReadBuffer();
+    private final Consumer<MapNode> reader = this::applyRead;
+    private final WriteBuffer writeBuffer;
 
     /** Tracks the status of the drain */
     private boolean drainActive = false;
     private final AtomicBoolean isEager = new AtomicBoolean(false);
 
+    /** Runs drains off the caller's thread, or null to drain inline */
+    private volatile Executor executor = null;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainTask = this::runScheduledDrain;
+
+    /** Coalesces concurrent loads of the same key */
+    private final SingleFlight loads = new SingleFlight();
+
     /** Admission Policy */
     private final AdmissionPolicy policy;
 
-    /** Random number generator for which buffer to drain */
-    private final Random generator = new Random();
+    /** Expiration. Deadlines are checked on every read, but expired entries
+     * are only unlinked as drains advance the wheel, which needs lock */
+    final Expiry expiry = new Expiry();
+    private final TimerWheel wheel = new TimerWheel(expiry,
+            System.nanoTime());
+    private final Consumer<MapNode> expirer = this::expire;
 
-    @SuppressWarnings("unchecked")
-    public ConcurrentCache(int capacity, int concurrency,
-                           AdmissionPolicy policy) {
+    /** Holds values off-heap if set, else values stay on MapNodes */
+    private volatile SlabAllocator slabs = null;
+    /** Compresses on-heap values if set */
+    private volatile ValueCompressor compressor = null;
+
+    ConcurrentCache(long capacity, int concurrency, int initialEntries,
+                    int writeBufferSize, AdmissionPolicy policy) {
         this.capacity = capacity;
         this.policy = policy;
-        data = new ConcurrentHashMap<>(200000, 0.5f, concurrency);
-        writeBuffer = new ConcurrentLinkedQueue<>();
-        numBuffers = ceilingNextPowerOfTwo(concurrency);
-        buffers = new AtomicReference[numBuffers][READ_BUFFER_SIZE];
-        bufferReadPointer = new long[numBuffers];
-        bufferWritePointer = new AtomicLong[numBuffers];
-        for (int i = 0; i < numBuffers; i++) {
-            bufferReadPointer[i] = 0;
-            bufferWritePointer[i] = new AtomicLong();
-            for (int j = 0; j < READ_BUFFER_SIZE; j++) {
-                buffers[i][j] = new AtomicReference<>();
-            }
-        }
+        data = new ConcurrentHashMap<>(initialEntries, 0.5f, concurrency);
+        writeBuffer = new WriteBuffer(writeBufferSize);
     }
 
-    public ConcurrentCache(int capacity, int concurrency) {
-        this(capacity, concurrency, IdlePolicy.getInstance());
+    /** writeBufferSize bounds the number of inserted entries that may be
+     * waiting for their weight to be applied and evictions to run */
+    public ConcurrentCache(long capacity, int concurrency,
+                           AdmissionPolicy policy, int writeBufferSize) {
+        this(capacity, concurrency, DEFAULT_INITIAL_ENTRIES, writeBufferSize,
+                policy);
     }
 
-    private static int ceilingNextPowerOfTwo(int x) {
-        // From CLHM source code
-        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    public ConcurrentCache(long capacity, int concurrency,
+                           AdmissionPolicy policy) {
+        this(capacity, concurrency, policy, DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    public ConcurrentCache(long capacity, int concurrency) {
+        this(capacity, concurrency, IdlePolicy.getInstance());
     }
 
     @Override
     public String get(String key) {
-        MapNode result = data.get(key);
-        if (result == null) {
-            return null;
+        MapNode result = lookup(key);
+        return (result == null) ? null : result.getValue();
+    }
+
+    /** Like get, but returns a read-only view of the value's bytes, UTF-8
+     * encoded if it was put as a String. Values put as bytes and held on
+     * heap are viewed without copying */
+    public ByteBuffer getBytes(String key) {
+        MapNode result = lookup(key);
+        return (result == null) ? null : result.getValueBytes();
+    }
+
+    /** Like get, but copies the value's bytes into dst if it has room,
+     * advancing its position. Returns the value's length either way, or -1
+     * on a miss. Allocates nothing for values put as bytes */
+    public int getBytes(String key, ByteBuffer dst) {
+        MapNode result = lookup(key);
+        return (result == null) ? -1 : result.readValueBytes(dst);
+    }
+
+    @Override
+    public String get(String key, CacheLoader loader) {
+        String value = get(key);
+        if (value != null) {
+            return value;
         }
+        return loads.load(this, key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        return insert(newNode(key, value, cost, size));
+    }
+
+    /** Like putIfAbsent, with the value as bytes. Takes ownership of value,
+     * which must not change afterwards */
+    public boolean putIfAbsent(String key, byte[] value, long cost,
+                               long size) {
+        return insert(newNode(key, value, cost, size));
+    }
 
-        int bufIndex = getBufferIndex();
-        long writePtr = bufferWritePointer[bufIndex].get();
-        int index = (int) writePtr & READ_MASK;
-        if (buffers[bufIndex][index].compareAndSet(null, result)) {
-            bufferWritePointer[bufIndex].incrementAndGet();
+    /** Like putIfAbsent, with the value as the remaining bytes of a buffer.
+     * They are copied once, straight into storage; value's position is left
+     * alone */
+    public boolean putIfAbsent(String key, ByteBuffer value, long cost,
+                               long size) {
+        return insert(newNode(key, value, cost, size));
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> result = new HashMap<>();
+        List<MapNode> hits = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            MapNode node = data.get(key);
+            if (node == null) {
+                // Misses are filled as get fills them, and buffered as writes
+                node = fill(key);
+                String value = (node == null) ? null : node.getValue();
+                if (value != null) {
+                    result.put(key, value);
+                }
+                continue;
+            }
+            if (!access(node)) {
+                continue;
+            }
+            // Off-heap values read as null once freed
+            String value = node.getValue();
+            if (value != null) {
+                onHit(node);
+                hits.add(node);
+                result.put(key, value);
+            }
+        }
+        if (hits.isEmpty()) {
+            return result;
         }
-        policy.registerRead(result);
 
-        if (shouldDrain(bufIndex)) {
-            tryDrain();
+        boolean readsPending = readBuffer.offerAll(hits);
+        if (shouldDrain(readsPending)) {
+            scheduleDrain();
         }
-        return result.getValue();
+        return result;
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
-        // Attempt put & if previous if previous not absent, abort
-        MapNode node = new MapNode(key, value, cost, size);
-        if (!policy.shouldAdmit(node, toEvict())) {
-            return false;
+    public int putAllIfAbsent(Map<String, CacheValue> entries) {
+        int added = 0;
+        for (Map.Entry<String, CacheValue> e : entries.entrySet()) {
+            CacheValue v = e.getValue();
+            if (publish(newNode(e.getKey(), v.getValue(), v.getCost(),
+                    v.getSize()))) {
+                added++;
+            }
         }
-        if (data.putIfAbsent(key, node) != null) {
-            return false;
+        if (added == 0) {
+            return 0;
         }
 
-        policy.registerWrite(node);
-        writeBuffer.offer(node);
+        // One drain check covers the whole batch
         isEager.lazySet(true);
-        if (shouldDrain(-1)) {
-            tryDrain();
+        if (shouldDrain(false)) {
+            scheduleDrain();
         }
-        return true;
+        return added;
+    }
+
+    /** Runs buffer drains and evictions on executor, so that callers only
+     * publish to buffers. Callers still drain inline if the executor rejects
+     * the task, or if the write buffer fills up. Passing null restores inline
+     * draining. See CacheExecutors for suitable executors */
+    public void setMaintenanceExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /** Stores the values of entries written from now on in slabs, off the
+     * Java heap. Each such entry is charged its chunk size rather than the
+     * size passed to putIfAbsent, and values too large for a slab are not
+     * cached. Passing null goes back to on-heap values */
+    public void setOffHeapStorage(SlabAllocator slabs) {
+        this.slabs = slabs;
+    }
+
+    /** Compresses the values of entries written from now on with
+     * compressor, when it finds them worth compressing. Such entries are
+     * charged the size and cost it gives them, and are decompressed on every
+     * read. Off-heap storage takes precedence. Passing null stops
+     * compressing */
+    public void setCompression(ValueCompressor compressor) {
+        this.compressor = compressor;
+    }
+
+    /** Entries written from now on expire this long after being written */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        expiry.setAfterWrite(duration, unit);
+    }
+
+    /** Entries written from now on expire this long after their last read */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        expiry.setAfterAccess(duration, unit);
+    }
+
+    /** Changes the capacity. Any excess is evicted by subsequent drains,
+     * at most EVICT_MAX_DRAIN entries at a time, so that shrinking a large
+     * cache never holds the lock for long */
+    public void setCapacity(long capacity) {
+        this.capacity = capacity;
+        isEager.lazySet(true);
+        scheduleDrain();
     }
 
     abstract void doRead(MapNode node);
     abstract void doWrite(MapNode node);
-    abstract void evict();
+    /** Unlinks a node from the eviction order. Expects to hold lock. */
+    abstract void doRemove(MapNode node);
+    /** Evicts until within capacity, or until EVICT_MAX_DRAIN entries are
+     * gone. Returns whether the cache may still be over capacity */
+    abstract boolean evict();
     abstract MapNode toEvict();
 
-    private int getBufferIndex() {
-        return (int) Thread.currentThread().getId() & (numBuffers - 1);
+    /** Called by get and getAll on a miss, outside lock. A node returned,
+     * made with newNode or restoreNode, is inserted like a put, and
+     * returned as a hit unless it has already expired. Returns null by
+     * default */
+    MapNode loadOnMiss(String key) {
+        return null;
     }
 
-    /** Checks if buffer should be drained */
-    private boolean shouldDrain(int idx) {
-        if (drainActive) {
+    /** Called for every node mapped to its key, once it is, before its
+     * write is buffered. Does nothing by default */
+    void onClaimed(MapNode node) {
+    }
+
+    /** Called for every node that leaves the cache, or that never got in
+     * because its key was already mapped, as its memory is released. Does
+     * nothing by default */
+    void onReleased(MapNode node) {
+    }
+
+    /** Called by readers for every hit, outside lock and before the read is
+     * buffered, so it sees reads the buffer drops. Does nothing by default */
+    void onHit(MapNode node) {
+    }
+
+    /** Called for every buffered write as it is drained, admitted or not.
+     * Expects to hold lock. Does nothing by default */
+    void onWriteDrained(MapNode node) {
+    }
+
+    /** Called for every write the admission policy rejects, before its
+     * memory is released. Expects to hold lock. Does nothing by default */
+    void onRejected(MapNode node) {
+    }
+
+    /** Called at the end of every drain with the time it took. Expects to
+     * hold lock. Does nothing by default */
+    void afterDrain(long nanos) {
+    }
+
+    /** Must be called for every node removed after being published, and
+     * by subclasses for every node they evict. Expects to hold lock. */
+    final void onRemoval(MapNode node) {
+        wheel.deschedule(node);
+        release(node);
+    }
+
+    /** Creates a node in the current storage mode, or returns null if the
+     * value can't be stored */
+    MapNode newNode(String key, String value, long cost, long size) {
+        SlabAllocator s = slabs;
+        if (s != null) {
+            return s.store(key, value, cost);
+        }
+        ValueCompressor c = compressor;
+        MapNode node = (c != null) ? c.compress(key, value, cost, size) : null;
+        return (node != null) ? node : new MapNode(key, value, cost, size);
+    }
+
+    /** Like newNode, for a value given as bytes. Takes ownership of value */
+    MapNode newNode(String key, byte[] value, long cost, long size) {
+        SlabAllocator s = slabs;
+        if (s != null) {
+            return s.store(key, ByteBuffer.wrap(value), cost);
+        }
+        ValueCompressor c = compressor;
+        MapNode node = (c != null) ? c.compress(key, value, cost, size) : null;
+        return (node != null) ? node : new BytesNode(key, value, cost, size);
+    }
+
+    /** Like newNode, for a value given as the remaining bytes of a buffer.
+     * They are copied once, straight into storage; value's position is left
+     * alone */
+    MapNode newNode(String key, ByteBuffer value, long cost, long size) {
+        SlabAllocator s = slabs;
+        if (s != null) {
+            return s.store(key, value, cost);
+        }
+        byte[] bytes = new byte[value.remaining()];
+        value.get(value.position(), bytes);
+        return newNode(key, bytes, cost, size);
+    }
+
+    /** Like newNode(key, ByteBuffer, cost, size), for a value this cache
+     * charged before, such as one paged back in. Its cost and size are kept
+     * as they were charged, rather than charged again */
+    MapNode restoreNode(String key, ByteBuffer value, long cost, long size) {
+        SlabAllocator s = slabs;
+        if (s != null) {
+            return s.store(key, value, cost);
+        }
+        byte[] bytes = new byte[value.remaining()];
+        value.get(value.position(), bytes);
+        ValueCompressor c = compressor;
+        MapNode node = (c != null) ? c.recompress(key, bytes, cost, size) :
+                null;
+        return (node != null) ? node : new BytesNode(key, bytes, cost, size);
+    }
+
+    /** Finds a live node, and buffers the read. Returns null on a miss */
+    private MapNode lookup(String key) {
+        MapNode result = data.get(key);
+        if (result == null) {
+            return fill(key);
+        }
+        if (!access(result)) {
+            return null;
+        }
+        onHit(result);
+
+        boolean readsPending = readBuffer.offer(result);
+
+        if (shouldDrain(readsPending)) {
+            scheduleDrain();
+        }
+        return result;
+    }
+
+    /** Inserts the node loadOnMiss finds for key, if any. Returns the live
+     * node key now maps to, or null */
+    private MapNode fill(String key) {
+        MapNode node = loadOnMiss(key);
+        if (node == null) {
+            return null;
+        }
+        // Someone else may have inserted key meanwhile
+        MapNode result = insert(node) ? node : data.get(key);
+        // A restored node may be past a deadline counted from its original
+        // write; the drain discards it
+        return (result != null && access(result)) ? result : null;
+    }
+
+    /** Publishes a new node, buffers its write and drains if due. Returns
+     * false if node is null, or if its key is already present */
+    private boolean insert(MapNode node) {
+        if (!publish(node)) {
             return false;
-        } else if (isEager.get()) {
+        }
+        isEager.lazySet(true);
+        if (shouldDrain(false)) {
+            scheduleDrain();
+        }
+        return true;
+    }
+
+    /** Maps node's key to it and buffers its write, without checking for a
+     * drain. Returns false if node is null, or if its key is already
+     * present */
+    private boolean publish(MapNode node) {
+        // Attempt put & if previous if previous not absent, abort. The
+        // admission policy may still reject the entry when it is drained
+        if (node == null) {
+            return false;
+        }
+        if (!claim(node)) {
+            release(node);
+            return false;
+        }
+        onClaimed(node);
+
+        while (!writeBuffer.offer(node)) {
+            // Buffer is full: help drain it, or back off while another does
+            if (!tryDrain()) {
+                Thread.yield();
+            }
+        }
+        return true;
+    }
+
+    /** Frees whatever a removed node holds outside the Java heap, and its
+     * deadline */
+    private void release(MapNode node) {
+        if (node instanceof SlabNode) {
+            ((SlabNode) node).free();
+        }
+        expiry.forget(node);
+        onReleased(node);
+    }
+
+    /** Checks a node read outside lock for expiry, and extends its deadline
+     * if reads do. The wheel catches up when the read is drained */
+    private boolean access(MapNode node) {
+        if (!expiry.isEnabled()) {
             return true;
         }
+        long now = System.nanoTime();
+        if (expiry.isExpired(node, now)) {
+            return false;
+        }
+        expiry.onAccess(node, now);
+        return true;
+    }
 
-        if (idx > 0) {
-            long toConsume =
-                    bufferWritePointer[idx].get() - bufferReadPointer[idx];
-            return toConsume > READ_THRESHOLD;
-        } else {
+    /** Maps node's key to it, unless a live node is already present. An
+     * expired node is swapped out and left for the drain to unlink */
+    private boolean claim(MapNode node) {
+        if (!expiry.isEnabled()) {
+            return data.putIfAbsent(node.getKey(), node) == null;
+        }
+
+        long now = System.nanoTime();
+        expiry.onWrite(node, now);
+        MapNode existing = data.putIfAbsent(node.getKey(), node);
+        if (existing == null) {
+            return true;
+        }
+        return expiry.isExpired(existing, now) &&
+                data.replace(node.getKey(), existing, node);
+    }
+
+    /** Checks if buffers should be drained */
+    private boolean shouldDrain(boolean readsPending) {
+        if (drainActive) {
             return false;
         }
+        return readsPending || isEager.get();
     }
 
-    /** Tries to drain buffer, if someone else isn't already draining it */
-    private void tryDrain() {
-        boolean success = lock.tryLock();
-        if (!success) {
+    /** Drains on the maintenance executor if there is one, else inline */
+    private void scheduleDrain() {
+        Executor e = executor;
+        if (e == null) {
+            tryDrain();
+            return;
+        }
+        if (!drainScheduled.compareAndSet(false, true)) {
             return;
         }
 
-        drain();
-        lock.unlock();
+        try {
+            e.execute(drainTask);
+        } catch (RejectedExecutionException ex) {
+            drainScheduled.set(false);
+            tryDrain();
+        }
     }
 
-    private void drain() {
-        drainReadBuffers();
-        drainWriteBuffer();
+    private void runScheduledDrain() {
+        lock.lock();
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+            // Even if the drain threw, so that later drains can be scheduled
+            drainScheduled.set(false);
+        }
+
+        // Pick up anything published while this drain was running
+        if (isEager.get()) {
+            scheduleDrain();
+        }
     }
 
-    private void drainReadBuffers() {
-        int idx = generator.nextInt(numBuffers);
-        for (int i = 0; i < numBuffers; i++) {
-            drainReadBuffer((idx + i) & (numBuffers - 1));
+    /** Tries to drain buffer, if someone else isn't already draining it.
+     * Returns whether this thread performed the drain */
+    private boolean tryDrain() {
+        boolean success = lock.tryLock();
+        if (!success) {
+            return false;
+        }
+
+        try {
+            drain();
+        } finally {
+            lock.unlock();
         }
+        return true;
     }
 
-    private void drainReadBuffer(int idx) {
-        int undrained =
-                (int) (bufferWritePointer[idx].get() - bufferReadPointer[idx]);
-        // Drain at most READ_MAX_DRAIN elements
-        int toDrain = (undrained < READ_MAX_DRAIN) ? undrained : READ_MAX_DRAIN;
-        for (int i = 0; i < toDrain; i++) {
-            int index = (int) bufferReadPointer[idx] & READ_MASK;
-            MapNode n = buffers[idx][index].get();
-            // Shouldn't happen
-            if (n == null) {
-                break;
-            }
+    private void drain() {
+        long start = System.nanoTime();
+        // Expired entries go first, so that they aren't charged to evictions
+        long now = 0;
+        if (expiry.isEnabled()) {
+            now = start;
+            wheel.advance(now, expirer);
+        }
+        readBuffer.drain(reader);
+        drainWriteBuffer(now);
+        // Catch up after a capacity change that had no writes behind it
+        if (evict()) {
+            isEager.lazySet(true);
+        }
+        afterDrain(System.nanoTime() - start);
+    }
 
-            buffers[idx][index].lazySet(null);
-            doRead(n);
-            bufferReadPointer[idx]++;
+    /** Records a buffered read with the policy and applies it. Expects to
+     * hold lock. */
+    private void applyRead(MapNode node) {
+        policy.registerRead(node);
+        doRead(node);
+        if (!node.isEvicted()) {
+            wheel.reschedule(node);
         }
     }
 
-    private void drainWriteBuffer() {
+    /** Unlinks an entry the wheel found expired. Expects to hold lock. */
+    private void expire(MapNode node) {
+        node.setEvicted();
+        doRemove(node);
+        // The key may already map to a replacement
+        data.remove(node.getKey(), node);
+        load -= node.getSize();
+        onRemoval(node);
+    }
+
+    /** Applies buffered writes. now is 0 if expiry is off */
+    private void drainWriteBuffer(long now) {
         drainActive = true;
         isEager.lazySet(false);
 
@@ -202,9 +592,41 @@ public abstract class ConcurrentCache implements Cache {
             if (n == null) {
                 break;
             }
-            load.addAndGet(n.getSize());
+
+            // Expired, or replaced after expiring, before it was ever applied
+            if (now != 0 && expiry.isExpired(n, now)) {
+                n.setEvicted();
+                data.remove(n.getKey(), n);
+                onRemoval(n);
+                continue;
+            }
+
+            onWriteDrained(n);
+
+            // Count the candidate first, so that a newcomer rejected now
+            // builds up the frequency to be admitted later
+            policy.registerWrite(n);
+            // Only filter when admitting would force out the victim
+            boolean full = load + n.getSize() > capacity;
+            boolean admit = !full || policy.shouldAdmit(n, toEvict());
+            if (!admit) {
+                n.setEvicted();
+                data.remove(n.getKey(), n);
+                onRejected(n);
+                onRemoval(n);
+                continue;
+            }
+
+            load += n.getSize();
             evict();
             doWrite(n);
+            if (now != 0) {
+                wheel.schedule(n);
+            }
+        }
+        // Leave the remainder for the next caller
+        if (writeBuffer.size() > 0) {
+            isEager.lazySet(true);
         }
 
         drainActive = false;
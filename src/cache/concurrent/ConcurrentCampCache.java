@@ -1,164 +1,295 @@
 package cache.concurrent;
 
-import cache.DoublyLinkedList;
+import cache.CacheSnapshot;
+import cache.CampQueue;
 import cache.MapNode;
+import cache.SegmentStore;
 import cache.admission.AdmissionPolicy;
 import cache.admission.IdlePolicy;
 
-import java.util.PriorityQueue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ConcurrentCampCache extends ConcurrentCache {
-    /** MIN_PRIORITY and MAX_PRIORITY contain the minimum and maximum cost-to-size
-     * ratios allowed */
-    private static final int MIN_PRIORITY = 1;
-    private static final int MAX_PRIORITY = 5000;
-    /** Range represents the number of possible index values */
-    private static final int RANGE = MAX_PRIORITY - MIN_PRIORITY + 1;
-
     /** Eviction data structures */
-    private final DoublyLinkedList<MapNode>[] lruQueues;
-    private final PriorityQueue<MapNode> heap;
+    private final CampQueue queue;
+
+    /** Tunes precision while adaptive precision is on, else null. Written
+     * under lock; read by get to count hits */
+    private volatile PrecisionClimber climber = null;
+
+    /** Snapshot that misses are paged in from, or null */
+    private final AtomicReference<CacheSnapshot> snapshot =
+            new AtomicReference<>();
+    /** Snapshot entries of nodes paged in whose writes aren't drained yet */
+    private final ConcurrentMap<MapNode, CacheSnapshot.Entry> restoring =
+            new ConcurrentHashMap<>();
 
-    /** Precision */
-    private final int precision;
+    /** Where costly evictions are demoted to, or null */
+    private volatile SegmentStore secondTier = null;
+    private volatile long demotionCost = 0;
+
+    public ConcurrentCampCache(long capacity, int concurrency, int precision,
+                               AdmissionPolicy policy, int writeBufferSize) {
+        this(capacity, concurrency, DEFAULT_INITIAL_ENTRIES, writeBufferSize,
+                precision, policy);
+    }
 
-    @SuppressWarnings("unchecked")
-    public ConcurrentCampCache(int capacity, int concurrency, int precision,
+    public ConcurrentCampCache(long capacity, int concurrency, int precision,
                                AdmissionPolicy policy) {
-        super(capacity, concurrency, policy);
-        this.precision = precision;
-        lruQueues = new DoublyLinkedList[RANGE];
-        for (int i = 0; i < RANGE; i++) {
-            lruQueues[i] = new DoublyLinkedList<>();
-        }
-        heap = new PriorityQueue<>();
+        this(capacity, concurrency, precision, policy,
+                DEFAULT_WRITE_BUFFER_SIZE);
+    }
+
+    ConcurrentCampCache(long capacity, int concurrency, int initialEntries,
+                        int writeBufferSize, int precision,
+                        AdmissionPolicy policy) {
+        super(capacity, concurrency, initialEntries, writeBufferSize, policy);
+        queue = new CampQueue(precision);
     }
 
-    public ConcurrentCampCache(int capacity, int concurrency,
+    public ConcurrentCampCache(long capacity, int concurrency,
                               AdmissionPolicy policy) {
         this(capacity, concurrency, 5, policy);
     }
 
-    public ConcurrentCampCache(int capacity, int concurrency) {
+    public ConcurrentCampCache(long capacity, int concurrency) {
         this(capacity, concurrency, 5, IdlePolicy.getInstance());
     }
 
+    /** Changes the precision. Entries move to their new queues lazily, as
+     * their reads are drained */
+    public void setPrecision(int precision) {
+        lock.lock();
+        queue.setPrecision(precision);
+        if (climber != null) {
+            climber.reset(precision);
+        }
+        lock.unlock();
+    }
+
+    /** Turns on or off tuning of precision by hill climbing on the sampled
+     * cost-miss ratio and drain time. See PrecisionClimber */
+    public void setAdaptivePrecision(boolean adaptive) {
+        lock.lock();
+        if (!adaptive) {
+            climber = null;
+        } else if (climber == null) {
+            climber = new PrecisionClimber(queue.getPrecision());
+        }
+        lock.unlock();
+    }
+
+    public PrecisionStats getPrecisionStats() {
+        lock.lock();
+        PrecisionStats stats = (climber != null) ? climber.stats() :
+                new PrecisionStats(queue.getPrecision(), false, false,
+                        new ArrayList<>());
+        lock.unlock();
+        return stats;
+    }
+
+    /** Writes every entry to a snapshot at path. Entries are read from the
+     * map without the lock, so reads and writes carry on meanwhile; the
+     * snapshot is as consistent as a concurrent iteration of the map */
+    public void writeSnapshot(Path path) throws IOException {
+        lock.lock();
+        long base = queue.getBasePriority();
+        int precision = queue.getPrecision();
+        lock.unlock();
+        MapNode[] nodes = data.values().toArray(new MapNode[0]);
+        CacheSnapshot.write(path, nodes, base, precision, expiry);
+    }
+
+    /** Maps a snapshot, from which misses are paged in from then on. They
+     * are inserted like puts, so they pass through admission, but once
+     * drained they take back the credit they had above the base priority,
+     * and their original write time for expiry. Entries are paged in at
+     * most once, and dropped if they have expired. The snapshot is closed
+     * once every entry has been paged in or dropped */
+    public void loadSnapshot(Path path) throws IOException {
+        snapshot.set(CacheSnapshot.open(path));
+    }
+
+    /** Stops paging in from the snapshot, if any */
+    public void closeSnapshot() {
+        snapshot.set(null);
+    }
+
+    /** Demotes entries whose cost is at least costThreshold to tier when
+     * they are evicted or refused admission, and looks up misses there
+     * before giving up on them. Entries found in tier are taken out of it
+     * and inserted like puts, so they pass through admission and take a
+     * fresh priority; one refused goes back to tier. Demotion writes to
+     * tier while holding the eviction lock. Passing null turns demotion
+     * off */
+    public void setSecondTier(SegmentStore tier, long costThreshold) {
+        demotionCost = costThreshold;
+        secondTier = tier;
+    }
+
     @Override
-    void doRead(MapNode node) {
-        if (node == null || !node.isValid()) {
-            return;
+    MapNode loadOnMiss(String key) {
+        CacheSnapshot.Entry entry = takeSnapshotEntry(key);
+        if (entry != null) {
+            return entry.isExpired() ? null : restore(entry);
         }
+        SegmentStore tier = secondTier;
+        SegmentStore.Entry demoted = (tier != null) ? tier.take(key) : null;
+        return (demoted == null) ? null : restoreNode(key,
+                demoted.getValue(), demoted.getCost(), demoted.getSize());
+    }
 
-        int index = calculatePriority(node.getCost(), node.getSize());
-        boolean wasHead = lruQueues[index].isHead(node);
+    @Override
+    void onClaimed(MapNode node) {
+        // A put supersedes the key's snapshot entry, if it is still there
+        takeSnapshotEntry(node.getKey());
+    }
 
-        lruQueues[index].remove(node);
-        boolean wasEmpty = lruQueues[index].isEmpty();
-        if (wasHead) {
-            heap.remove(node);
-            if (!wasEmpty) {
-                heap.offer(lruQueues[index].peekHead());
-            }
+    @Override
+    void onReleased(MapNode node) {
+        if (!restoring.isEmpty()) {
+            restoring.remove(node);
         }
-        node.setOrdering(getBasePriority() + index);
-        lruQueues[index].pushTail(node);
-        // NOTE: wasEmpty implies wasHead. This could be simplified
-        if (wasHead && wasEmpty) {
-            heap.offer(lruQueues[index].peekHead());
+    }
+
+    @Override
+    void onHit(MapNode node) {
+        PrecisionClimber c = climber;
+        if (c != null) {
+            c.recordHit(node);
         }
     }
 
+    /** A node for a snapshot entry, which takes back its standing when its
+     * write is drained */
+    private MapNode restore(CacheSnapshot.Entry entry) {
+        MapNode node = restoreNode(entry.getKey(), entry.getValueBytes(),
+                entry.getCost(), entry.getSize());
+        if (node != null) {
+            expiry.onRestore(node, entry.getWriteTime());
+            restoring.put(node, entry);
+        }
+        return node;
+    }
+
+    /** Takes key's entry out of the snapshot, if there is one, closing the
+     * snapshot once it is drained */
+    private CacheSnapshot.Entry takeSnapshotEntry(String key) {
+        CacheSnapshot s = snapshot.get();
+        if (s == null) {
+            return null;
+        }
+        CacheSnapshot.Entry entry = s.take(key);
+        if (s.isDrained()) {
+            snapshot.compareAndSet(s, null);
+        }
+        return entry;
+    }
+
+    @Override
+    void doRead(MapNode node) {
+        // Nodes that were evicted, or whose write is still buffered, are skipped
+        if (node == null || node.isEvicted()) {
+            return;
+        }
+        queue.refresh(node);
+    }
+
     @Override
     void doWrite(MapNode node) {
         if (node == null) {
             return;
         }
+        CacheSnapshot.Entry entry = restoring.isEmpty() ? null :
+                restoring.remove(node);
+        if (entry != null) {
+            // Take back the standing the entry had in the snapshot
+            queue.push(node, entry.getPriority(queue.getPrecision()),
+                    entry.getCredit());
+        } else {
+            queue.push(node);
+        }
+    }
 
-        int index = calculatePriority(node.getCost(), node.getSize());
-        boolean isEmpty = lruQueues[index].isEmpty();
+    @Override
+    void onWriteDrained(MapNode node) {
+        if (climber != null) {
+            climber.recordMiss(node);
+        }
+    }
 
-        int inflated = getBasePriority() + index;
-        node.setOrdering(inflated);
+    @Override
+    void onRejected(MapNode node) {
+        demote(node);
+    }
 
-        lruQueues[index].pushTail(node);
-        if (isEmpty) {
-            heap.offer(node);
+    @Override
+    void afterDrain(long nanos) {
+        if (climber == null) {
+            return;
+        }
+        climber.recordDrain(nanos);
+        if (climber.isWindowComplete()) {
+            queue.setPrecision(climber.climb());
         }
     }
 
     @Override
-    void evict() {
+    void doRemove(MapNode node) {
+        queue.remove(node);
+    }
+
+    @Override
+    boolean evict() {
         if (!shouldEvict() || !lock.tryLock()) {
-            return;
+            return false;
         }
 
-        while (shouldEvict()) {
+        for (int i = 0; i < EVICT_MAX_DRAIN && shouldEvict(); i++) {
             evictOne();
         }
+        boolean more = shouldEvict();
         lock.unlock();
+        return more;
     }
 
     @Override
     MapNode toEvict() {
-        return heap.peek();
+        return queue.peek();
     }
 
     private void evictOne() {
         // Get the top of the Heap
-        MapNode node = heap.poll();
+        MapNode node = queue.poll();
         if (node == null) {
             return;
         }
 
         node.setEvicted();
-        String key = node.getKey();
-        if (data.containsKey(key)) {
-            data.remove(key);
-            load.addAndGet(-1 * node.getSize());
-            int index = calculatePriority(node.getCost(), node.getSize());
-            lruQueues[index].remove(node);
-            if (!lruQueues[index].isEmpty()) {
-                heap.offer(lruQueues[index].peekHead());
-            }
-        }
+        // Demote before onRemoval, which may release the value's memory
+        demote(node);
+        onRemoval(node);
+        // The key may already map to a replacement, but node's weight was
+        // still charged
+        data.remove(node.getKey(), node);
+        load -= node.getSize();
     }
 
-    private boolean shouldEvict() {
-        return (load.intValue() > capacity) && !heap.isEmpty();
-    }
-
-    /** Finds the rounded priority for a given cost and size */
-    private int calculatePriority(int cost, int size) {
-        // Convert costRatio into a priority index
-        int priority = cost / (size * MIN_PRIORITY);
-        if (priority >= RANGE) {
-            priority = RANGE - 1;
+    /** Writes a costly entry leaving this cache to the second tier, if any.
+     * Expects to hold lock. */
+    private void demote(MapNode node) {
+        SegmentStore tier = secondTier;
+        if (tier != null && node.getCost() >= demotionCost) {
+            tier.put(node);
         }
-
-        return round(priority);
     }
 
-    /** Rounds a number to a precision, according to CAMP algorithm */
-    private int round(int number) {
-        // Find the number of trailing bits to zero out
-        int numBits = Integer.SIZE - Integer.numberOfLeadingZeros(number);
-        int extraBits = 0;
-        if (numBits > precision) {
-            extraBits = numBits - precision;
-        }
-
-        // Zero extraBits trailing bits
-        int rounded = Integer.rotateRight(number, extraBits);
-        rounded = Integer.rotateLeft(rounded, extraBits);
-        return rounded;
-    }
-
-    /** Updates the base priority */
-    private int getBasePriority() {
-        if (heap.isEmpty()) {
-            return 0;
-        } else {
-            return heap.peek().getOrdering();
-        }
+    private boolean shouldEvict() {
+        return (load > capacity) && !queue.isEmpty();
     }
 }
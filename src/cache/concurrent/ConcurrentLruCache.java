@@ -6,15 +6,20 @@ import cache.admission.AdmissionPolicy;
 
 public class ConcurrentLruCache extends ConcurrentCache {
     private final DoublyLinkedList<MapNode> lruQueue = new DoublyLinkedList<>();
-    public ConcurrentLruCache(int capacity, int concurrency) {
+    public ConcurrentLruCache(long capacity, int concurrency) {
         super(capacity, concurrency);
     }
 
-    public ConcurrentLruCache(int capacity, int concurrency,
+    public ConcurrentLruCache(long capacity, int concurrency,
                               AdmissionPolicy policy) {
         super(capacity, concurrency, policy);
     }
 
+    public ConcurrentLruCache(long capacity, int concurrency,
+                              AdmissionPolicy policy, int writeBufferSize) {
+        super(capacity, concurrency, policy, writeBufferSize);
+    }
+
     @Override
     void doRead(MapNode node) {
         if (node.isValid()) {
@@ -27,17 +32,27 @@ public class ConcurrentLruCache extends ConcurrentCache {
         lruQueue.pushTail(node);
     }
 
+    @Override
+    void doRemove(MapNode node) {
+        // A lone node has no links, so check it is really the one queued
+        if (node.isValid() || lruQueue.isHead(node)) {
+            lruQueue.remove(node);
+        }
+    }
+
     /** Evicts until properly sized. */
     @Override
-    void evict() {
+    boolean evict() {
         if (!shouldEvict() || !lock.tryLock()) {
-            return;
+            return false;
         }
 
-        while (shouldEvict()) {
+        for (int i = 0; i < EVICT_MAX_DRAIN && shouldEvict(); i++) {
             evictOne();
         }
+        boolean more = shouldEvict();
         lock.unlock();
+        return more;
     }
 
     @Override
@@ -53,15 +68,15 @@ public class ConcurrentLruCache extends ConcurrentCache {
         }
 
         node.setEvicted();
-        String key = node.getKey();
-        if (data.containsKey(key)) {
-            load.addAndGet(-1 * node.getSize());
-            data.remove(key);
-        }
+        onRemoval(node);
+        // The key may already map to a replacement, but node's weight was
+        // still charged
+        data.remove(node.getKey(), node);
+        load -= node.getSize();
     }
 
     private boolean shouldEvict() {
-        return (load.intValue() > capacity) && !lruQueue.isEmpty();
+        return (load > capacity) && !lruQueue.isEmpty();
     }
 }
 
@@ -0,0 +1,179 @@
+package cache.concurrent;
+
+import cache.MapNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Picks CAMP's precision by hill climbing. Hits and misses are tallied over
+   windows of WINDOW_OPS operations. After each window the precision takes
+   another step in the same direction if the cost-miss ratio improved, or
+   turns around if it got worse.
+
+   A change only counts if it is significant: each window estimates the
+   standard error of its own cost-miss ratio, and the difference between two
+   windows must exceed Z of their combined standard errors. Otherwise the
+   window with less drain time per operation wins, so that ties go to cheaper
+   bookkeeping. Once the climber has turned around MAX_REVERSALS times it has
+   bracketed the best precision, so it settles on the better of its last two
+   and stops stepping. It only climbs again if a later window is
+   significantly worse than the one it settled on.
+
+   Hits are counted by readers, before the lossy read buffer can drop them,
+   so recordHit may be called from any thread. Everything else is NOT
+   thread-safe, and must be called under external synchronization.
+ */
+class PrecisionClimber {
+    /** Hits and misses per window */
+    private static final int WINDOW_OPS = 50000;
+    /** Standard errors a change must exceed to count */
+    private static final double Z = 3;
+    /** Turnarounds after which the climber settles */
+    private static final int MAX_REVERSALS = 3;
+    private static final int MIN_PRECISION = 1;
+    private static final int MAX_PRECISION = 16;
+    /** Number of windows kept for PrecisionStats */
+    private static final int MAX_HISTORY = 64;
+
+    private int precision;
+    private int direction = 1;
+    private int reversals = 0;
+    /** Window settled on, or null while climbing */
+    private PrecisionStats.Window settled = null;
+
+    /** Current window. Hits come from any thread */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder hitCost = new LongAdder();
+    private final DoubleAdder hitCostSquares = new DoubleAdder();
+    private long misses, missCost, drainNanos;
+    private double missCostSquares;
+
+    /** Previous window, or null before the first one ends */
+    private PrecisionStats.Window previous = null;
+    private final ArrayDeque<PrecisionStats.Window> history =
+            new ArrayDeque<>();
+
+    PrecisionClimber(int precision) {
+        this.precision = precision;
+    }
+
+    /** Safe to call from any thread */
+    void recordHit(MapNode node) {
+        long cost = node.getCost();
+        hits.increment();
+        hitCost.add(cost);
+        hitCostSquares.add((double) cost * cost);
+    }
+
+    void recordMiss(MapNode node) {
+        long cost = node.getCost();
+        misses++;
+        missCost += cost;
+        missCostSquares += (double) cost * cost;
+    }
+
+    void recordDrain(long nanos) {
+        drainNanos += nanos;
+    }
+
+    boolean isWindowComplete() {
+        return misses + hits.sum() >= WINDOW_OPS;
+    }
+
+    /** Ends the current window and returns the precision for the next one */
+    int climb() {
+        PrecisionStats.Window current = closeWindow();
+        if (history.size() == MAX_HISTORY) {
+            history.pollFirst();
+        }
+        history.addLast(current);
+
+        if (settled != null) {
+            if (!isSignificantlyWorse(current, settled)) {
+                return precision;
+            }
+            // The workload has moved on: climb again from here
+            settled = null;
+            reversals = 0;
+            previous = null;
+        }
+
+        if (previous != null && isWorse(current, previous)) {
+            direction = -direction;
+            if (++reversals >= MAX_REVERSALS) {
+                // The best precision is bracketed: stay at the better one
+                settled = previous;
+                precision = previous.getPrecision();
+                previous = null;
+                return precision;
+            }
+        }
+        previous = current;
+
+        int next = precision + direction;
+        if (next < MIN_PRECISION || next > MAX_PRECISION) {
+            // Bounce off the limits
+            direction = -direction;
+            next = precision + direction;
+        }
+        precision = next;
+        return precision;
+    }
+
+    /** Follows a precision set from outside, starting a fresh comparison */
+    void reset(int precision) {
+        this.precision = precision;
+        previous = null;
+        settled = null;
+        reversals = 0;
+        closeWindow();
+    }
+
+    PrecisionStats stats() {
+        return new PrecisionStats(precision, true, settled != null,
+                new ArrayList<>(history));
+    }
+
+    /** Summarizes the current window and starts the next one */
+    private PrecisionStats.Window closeWindow() {
+        long ops = misses + hits.sumThenReset();
+        double hitSquares = hitCostSquares.sumThenReset();
+        double total = hitCost.sumThenReset() + missCost;
+        double ratio = (total == 0) ? 0 : missCost / total;
+        // Delta-method standard error of a ratio of sums, each operation
+        // contributing its cost to the total and, if a miss, to missCost
+        double variance = (total == 0) ? 0 :
+                ((1 - ratio) * (1 - ratio) * missCostSquares +
+                        ratio * ratio * hitSquares) / (total * total);
+        PrecisionStats.Window window = new PrecisionStats.Window(precision,
+                ratio, Math.sqrt(variance),
+                (ops == 0) ? 0 : (double) drainNanos / ops);
+
+        misses = 0;
+        missCost = 0;
+        missCostSquares = 0;
+        drainNanos = 0;
+        return window;
+    }
+
+    private static boolean isWorse(PrecisionStats.Window current,
+                                   PrecisionStats.Window previous) {
+        if (isSignificantlyWorse(current, previous)) {
+            return true;
+        }
+        if (isSignificantlyWorse(previous, current)) {
+            return false;
+        }
+        return current.getDrainNanosPerOp() > previous.getDrainNanosPerOp();
+    }
+
+    private static boolean isSignificantlyWorse(PrecisionStats.Window current,
+                                                PrecisionStats.Window base) {
+        double delta = current.getCostMissRatio() - base.getCostMissRatio();
+        double error = Math.hypot(current.getStandardError(),
+                base.getStandardError());
+        return delta > Z * error;
+    }
+}
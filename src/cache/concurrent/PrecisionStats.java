@@ -0,0 +1,81 @@
+package cache.concurrent;
+
+import java.util.Collections;
+import java.util.List;
+
+/** Snapshot of a ConcurrentCampCache's precision, and of the windows its
+ *  adaptive mode measured on the way there, oldest first. */
+public class PrecisionStats {
+    private final int precision;
+    private final boolean adaptive;
+    private final boolean settled;
+    private final List<Window> history;
+
+    PrecisionStats(int precision, boolean adaptive, boolean settled,
+                   List<Window> history) {
+        this.precision = precision;
+        this.adaptive = adaptive;
+        this.settled = settled;
+        this.history = Collections.unmodifiableList(history);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /** Whether adaptive precision has stopped stepping. See
+     * PrecisionClimber */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public List<Window> getHistory() {
+        return history;
+    }
+
+    /* What the cache saw while running at one precision */
+    public static class Window {
+        private final int precision;
+        private final double costMissRatio;
+        private final double standardError;
+        private final double drainNanosPerOp;
+
+        Window(int precision, double costMissRatio, double standardError,
+               double drainNanosPerOp) {
+            this.precision = precision;
+            this.costMissRatio = costMissRatio;
+            this.standardError = standardError;
+            this.drainNanosPerOp = drainNanosPerOp;
+        }
+
+        public int getPrecision() {
+            return precision;
+        }
+
+        /** Cost of drained writes over cost of hits and drained writes.
+         * Each write is taken to follow a miss on its key */
+        public double getCostMissRatio() {
+            return costMissRatio;
+        }
+
+        /** Estimated sampling error of getCostMissRatio() */
+        public double getStandardError() {
+            return standardError;
+        }
+
+        /** Time spent draining per hit or write */
+        public double getDrainNanosPerOp() {
+            return drainNanosPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return precision + "," + costMissRatio + "," + standardError +
+                    "," + drainNanosPerOp;
+        }
+    }
+}
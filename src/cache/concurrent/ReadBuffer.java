@@ -0,0 +1,158 @@
+package cache.concurrent;
+
+import cache.MapNode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/* Striped, lossy buffer of recent reads. Threads pick a stripe with a random
+   per-thread probe. When a thread loses a CAS it moves to another stripe and
+   the table doubles, up to a multiple of the number of CPUs, so the stripe
+   count follows the contention actually seen instead of a guess made at
+   construction. A read that loses a race or finds its stripe full is dropped.
+
+   Offers may come from any thread; drain() must only be called by one thread
+   at a time.
+ */
+class ReadBuffer {
+    /** Buffer thresholds and size. */
+    private static final int READ_THRESHOLD = 32;
+    private static final int READ_MAX_DRAIN = 2 * READ_THRESHOLD;
+    private static final int READ_BUFFER_SIZE = 4 * READ_MAX_DRAIN;
+    private static final int READ_MASK = READ_BUFFER_SIZE - 1;
+
+    /** Upper bound on the number of stripes */
+    private static final int MAX_STRIPES = ceilingNextPowerOfTwo(
+            4 * Runtime.getRuntime().availableProcessors());
+
+    /** Per-thread hash used to pick a stripe. Never 0 */
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(
+            () -> new int[] { ThreadLocalRandom.current().nextInt() | 1 });
+
+    private volatile Stripe[] table = { new Stripe() };
+    private final AtomicBoolean resizing = new AtomicBoolean(false);
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        // From CLHM source code
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    /** Records a read. Returns true if the stripe has enough pending reads
+     * that it should be drained */
+    boolean offer(MapNode node) {
+        int[] probe = PROBE.get();
+        Stripe[] stripes = table;
+        Stripe stripe = stripes[probe[0] & (stripes.length - 1)];
+
+        long writePtr = stripe.writePointer.get();
+        long pending = writePtr - stripe.readPointer.get();
+        if (pending >= READ_BUFFER_SIZE) {
+            return true;
+        }
+        if (stripe.writePointer.compareAndSet(writePtr, writePtr + 1)) {
+            stripe.slots.lazySet((int) writePtr & READ_MASK, node);
+            return pending >= READ_THRESHOLD;
+        }
+
+        // Contended: move this thread to another stripe and add stripes
+        probe[0] = rehash(probe[0]);
+        expand(stripes);
+        return false;
+    }
+
+    /** Records a batch of reads with a single claim on one stripe. Reads that
+     * don't fit are dropped. Returns true if the stripe should be drained */
+    boolean offerAll(List<MapNode> nodes) {
+        int[] probe = PROBE.get();
+        Stripe[] stripes = table;
+        Stripe stripe = stripes[probe[0] & (stripes.length - 1)];
+
+        long writePtr = stripe.writePointer.get();
+        long pending = writePtr - stripe.readPointer.get();
+        int count = (int) Math.min(nodes.size(), READ_BUFFER_SIZE - pending);
+        if (count <= 0) {
+            return true;
+        }
+        if (stripe.writePointer.compareAndSet(writePtr, writePtr + count)) {
+            for (int i = 0; i < count; i++) {
+                stripe.slots.lazySet((int) (writePtr + i) & READ_MASK,
+                        nodes.get(i));
+            }
+            return pending + count > READ_THRESHOLD;
+        }
+
+        // Contended: move this thread to another stripe and add stripes
+        probe[0] = rehash(probe[0]);
+        expand(stripes);
+        return false;
+    }
+
+    /** Applies up to READ_MAX_DRAIN pending reads from every stripe */
+    void drain(Consumer<MapNode> consumer) {
+        Stripe[] stripes = table;
+        int start = ThreadLocalRandom.current().nextInt(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[(start + i) & (stripes.length - 1)].drain(consumer);
+        }
+    }
+
+    /** Number of stripes currently in use */
+    int stripes() {
+        return table.length;
+    }
+
+    private void expand(Stripe[] stripes) {
+        if (stripes.length >= MAX_STRIPES || table != stripes ||
+                !resizing.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (table == stripes) {
+            Stripe[] grown = Arrays.copyOf(stripes, 2 * stripes.length);
+            for (int i = stripes.length; i < grown.length; i++) {
+                grown[i] = new Stripe();
+            }
+            table = grown;
+        }
+        resizing.set(false);
+    }
+
+    private static int rehash(int probe) {
+        // Marsaglia xorshift, as used by Striped64
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        return probe;
+    }
+
+    /* Ring buffer of reads with a CAS-claimed write pointer */
+    private static final class Stripe {
+        final AtomicReferenceArray<MapNode> slots =
+                new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        final AtomicLong writePointer = new AtomicLong();
+        /** Only written by the draining thread */
+        final AtomicLong readPointer = new AtomicLong();
+
+        void drain(Consumer<MapNode> consumer) {
+            long readPtr = readPointer.get();
+            for (int i = 0; i < READ_MAX_DRAIN; i++) {
+                int index = (int) readPtr & READ_MASK;
+                MapNode n = slots.get(index);
+                // Empty, or the producer hasn't published its slot yet
+                if (n == null) {
+                    break;
+                }
+
+                slots.lazySet(index, null);
+                consumer.accept(n);
+                readPtr++;
+            }
+            readPointer.lazySet(readPtr);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cache.concurrent;
+
+import cache.Cache;
+import cache.CampQueue;
+import cache.MapNode;
+
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/** Approximate CAMP with no heap, queues, buffers or lock. A hit stamps the
+ *  entry with its inflated priority; eviction samples a few entries from a
+ *  random region of the map and removes the one with the lowest ordering, as
+ *  Redis does for approximate LRU. */
+public class SampledCampCache implements Cache {
+    /** Default number of entries examined per eviction */
+    private static final int DEFAULT_SAMPLES = 8;
+    /** Give up on an eviction after this many empty regions */
+    private static final int MAX_SAMPLE_ATTEMPTS = 4;
+
+    /** Backing Map */
+    private final ConcurrentHashMap<String, MapNode> data;
+
+    /** Amount of data currently in cache versus what's allowed */
+    private final long capacity;
+    /** Striped, since every put and eviction updates it without a lock */
+    private final LongAdder load = new LongAdder();
+
+    /** Ordering of the most recent victim, which new priorities build on */
+    private final AtomicLong basePriority = new AtomicLong(0);
+
+    private final int precision;
+    private final int samples;
+
+    public SampledCampCache(long capacity, int concurrency, int precision,
+                            int samples) {
+        this.capacity = capacity;
+        this.precision = precision;
+        this.samples = samples;
+        // Let the table grow with the entries: sampling splits it by bins, so
+        // a mostly empty table would make every sample scan empty bins
+        data = new ConcurrentHashMap<>(16, 0.75f, concurrency);
+    }
+
+    /** Initializes with precision 5 and 8 samples per eviction */
+    public SampledCampCache(long capacity, int concurrency) {
+        this(capacity, concurrency, 5, DEFAULT_SAMPLES);
+    }
+
+    @Override
+    public String get(String key) {
+        MapNode result = data.get(key);
+        if (result == null) {
+            return null;
+        }
+
+        result.setOrdering(inflatedPriority(result));
+        return result.getValue();
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        MapNode node = new MapNode(key, value, cost, size);
+        node.setOrdering(inflatedPriority(node));
+        if (data.putIfAbsent(key, node) != null) {
+            return false;
+        }
+
+        load.add(size);
+        while (load.sum() > capacity) {
+            if (!evictOne()) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private long inflatedPriority(MapNode node) {
+        return basePriority.get() + CampQueue.calculatePriority(
+                node.getCost(), node.getSize(), precision);
+    }
+
+    /** Evicts the lowest-priority entry of a sample. Returns false if no
+     * entry could be found */
+    private boolean evictOne() {
+        MapNode victim = null;
+        for (int i = 0; i < MAX_SAMPLE_ATTEMPTS && victim == null; i++) {
+            victim = sample();
+        }
+        if (victim == null) {
+            return false;
+        }
+
+        // Racing evictors may pick the same victim; only one removes it
+        if (data.remove(victim.getKey(), victim)) {
+            victim.setEvicted();
+            load.add(-victim.getSize());
+            basePriority.accumulateAndGet(victim.getOrdering(), Math::max);
+        }
+        return true;
+    }
+
+    /** Returns the lowest-ordering node among up to samples consecutive
+     * entries of a random region of the map, or null if it was empty */
+    private MapNode sample() {
+        // Halve the map's bins at random until the region is small
+        Spliterator<MapNode> region = data.values().spliterator();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (region.estimateSize() > 2 * samples) {
+            Spliterator<MapNode> half = region.trySplit();
+            if (half == null) {
+                break;
+            }
+            if (random.nextBoolean()) {
+                region = half;
+            }
+        }
+
+        Sampler sampler = new Sampler();
+        for (int i = 0; i < samples; i++) {
+            if (!region.tryAdvance(sampler)) {
+                break;
+            }
+        }
+        return sampler.min;
+    }
+
+    /* Keeps the lowest-ordering node it is given */
+    private static final class Sampler implements Consumer<MapNode> {
+        MapNode min = null;
+
+        @Override
+        public void accept(MapNode node) {
+            if (min == null || node.getOrdering() < min.getOrdering()) {
+                min = node;
+            }
+        }
+    }
+}
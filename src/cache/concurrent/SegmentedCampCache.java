@@ -0,0 +1,265 @@
+package cache.concurrent;
+
+import cache.Cache;
+import cache.CacheLoader;
+import cache.CacheValue;
+import cache.MapNode;
+import cache.admission.AdmissionPolicy;
+import cache.admission.IdlePolicy;
+import cache.compress.ValueCompressor;
+import cache.offheap.SlabAllocator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/** CAMP cache split into independent segments by key hash. Every segment is a
+ *  ConcurrentCampCache with its own lock, buffers, queues and share of the
+ *  capacity, so drains on different segments proceed in parallel. */
+public class SegmentedCampCache implements Cache {
+    /** On average, one put in REBALANCE_INTERVAL attempts a rebalance */
+    private static final int REBALANCE_INTERVAL = 1024;
+    /** Fraction of a segment's fair share moved by a single rebalance */
+    private static final int REBALANCE_STEP_DIVISOR = 64;
+    /** Fraction of a segment's fair share it may never shrink below */
+    private static final int MIN_SHARE_DIVISOR = 4;
+
+    private final ConcurrentCampCache[] segments;
+    private final int segmentMask;
+
+    /** Capacity rebalancing, if enabled. Guarded by rebalanceLock, which
+     * also serializes capacity changes */
+    private final boolean rebalance;
+    private long step;
+    private long minShare;
+    private final Lock rebalanceLock = new ReentrantLock();
+
+    /** policies supplies each segment its own AdmissionPolicy: segments
+     * drain under separate locks, and policies need not be thread-safe */
+    public SegmentedCampCache(long capacity, int concurrency, int numSegments,
+                              int precision,
+                              Supplier<AdmissionPolicy> policies,
+                              boolean rebalance) {
+        int n = ceilingNextPowerOfTwo(numSegments);
+        segments = new ConcurrentCampCache[n];
+        segmentMask = n - 1;
+
+        int segmentConcurrency = Math.max(1, concurrency / n);
+        int initialEntries = Math.max(16,
+                ConcurrentCache.DEFAULT_INITIAL_ENTRIES / n);
+        for (int i = 0; i < n; i++) {
+            segments[i] = new ConcurrentCampCache(shareOf(capacity, i),
+                    segmentConcurrency, initialEntries,
+                    ConcurrentCache.DEFAULT_WRITE_BUFFER_SIZE, precision,
+                    policies.get());
+        }
+
+        this.rebalance = rebalance;
+        setSteps(capacity);
+    }
+
+    /** Initializes with one segment per unit of concurrency, precision 5 and
+     * no rebalancing */
+    public SegmentedCampCache(long capacity, int concurrency) {
+        this(capacity, concurrency, concurrency, 5, IdlePolicy::getInstance,
+                false);
+    }
+
+    private static int ceilingNextPowerOfTwo(int x) {
+        // From CLHM source code
+        return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    @Override
+    public String get(String key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public String get(String key, CacheLoader loader) {
+        return segmentFor(key).get(key, loader);
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
+        boolean added = segmentFor(key).putIfAbsent(key, value, cost, size);
+        if (added && rebalance && ThreadLocalRandom.current()
+                .nextInt(REBALANCE_INTERVAL) == 0) {
+            tryRebalance();
+        }
+        return added;
+    }
+
+    @Override
+    public Map<String, String> getAll(Collection<String> keys) {
+        List<List<String>> bySegment = partition(keys);
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            List<String> segmentKeys = bySegment.get(i);
+            if (!segmentKeys.isEmpty()) {
+                result.putAll(segments[i].getAll(segmentKeys));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int putAllIfAbsent(Map<String, CacheValue> entries) {
+        List<List<String>> bySegment = partition(entries.keySet());
+        int added = 0;
+        for (int i = 0; i < segments.length; i++) {
+            List<String> segmentKeys = bySegment.get(i);
+            if (segmentKeys.isEmpty()) {
+                continue;
+            }
+            Map<String, CacheValue> segmentEntries = new HashMap<>();
+            for (String key : segmentKeys) {
+                segmentEntries.put(key, entries.get(key));
+            }
+            added += segments[i].putAllIfAbsent(segmentEntries);
+        }
+        return added;
+    }
+
+    /** Changes the total capacity, splitting it evenly again. This discards
+     * any rebalancing so far. Each segment evicts its excess incrementally */
+    public void setCapacity(long capacity) {
+        rebalanceLock.lock();
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setCapacity(shareOf(capacity, i));
+        }
+        setSteps(capacity);
+        rebalanceLock.unlock();
+    }
+
+    /** Changes the precision of every segment */
+    public void setPrecision(int precision) {
+        for (ConcurrentCampCache segment : segments) {
+            segment.setPrecision(precision);
+        }
+    }
+
+    /** Turns adaptive precision on or off for every segment. Each segment
+     * climbs on its own share of the workload */
+    public void setAdaptivePrecision(boolean adaptive) {
+        for (ConcurrentCampCache segment : segments) {
+            segment.setAdaptivePrecision(adaptive);
+        }
+    }
+
+    /** Stores values off-heap in slabs shared by every segment. See
+     * ConcurrentCache.setOffHeapStorage */
+    public void setOffHeapStorage(SlabAllocator slabs) {
+        for (ConcurrentCampCache segment : segments) {
+            segment.setOffHeapStorage(slabs);
+        }
+    }
+
+    /** Compresses values in every segment. See
+     * ConcurrentCache.setCompression */
+    public void setCompression(ValueCompressor compressor) {
+        for (ConcurrentCampCache segment : segments) {
+            segment.setCompression(compressor);
+        }
+    }
+
+    /** Runs maintenance for every segment on executor */
+    public void setMaintenanceExecutor(Executor executor) {
+        for (ConcurrentCampCache segment : segments) {
+            segment.setMaintenanceExecutor(executor);
+        }
+    }
+
+    /** Segment i's even share of capacity. Any remainder is spread over the
+     * first segments so shares sum to capacity */
+    private long shareOf(long capacity, int i) {
+        int n = segments.length;
+        return capacity / n + ((i < capacity % n) ? 1 : 0);
+    }
+
+    /** Sizes rebalancing steps for a total capacity */
+    private void setSteps(long capacity) {
+        long share = capacity / segments.length;
+        step = Math.max(1, share / REBALANCE_STEP_DIVISOR);
+        minShare = share / MIN_SHARE_DIVISOR;
+    }
+
+    private ConcurrentCampCache segmentFor(String key) {
+        return segments[segmentIndex(key)];
+    }
+
+    private int segmentIndex(String key) {
+        // Spread the hash so that segments and map bins use different bits
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & segmentMask;
+    }
+
+    /** Groups keys by the segment that owns them */
+    private List<List<String>> partition(Collection<String> keys) {
+        List<List<String>> bySegment = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            bySegment.add(new ArrayList<>());
+        }
+        for (String key : keys) {
+            bySegment.get(segmentIndex(key)).add(key);
+        }
+        return bySegment;
+    }
+
+    /** Moves capacity from the segment whose next victim is cheapest to the
+     * full segment whose next victim is most expensive, if they differ */
+    private void tryRebalance() {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+
+        ConcurrentCampCache donor = null, receiver = null;
+        double donorCsr = Double.MAX_VALUE, receiverCsr = -1;
+        for (ConcurrentCampCache segment : segments) {
+            // Space a segment isn't using yet costs it nothing to give away
+            boolean full = segment.load + step > segment.capacity;
+            double csr = full ? victimCsr(segment) : 0;
+            if (csr < 0) {
+                // Its drain is running; leave it out of this round
+                continue;
+            }
+            if (csr < donorCsr && segment.capacity - step >= minShare) {
+                donor = segment;
+                donorCsr = csr;
+            }
+            if (full && csr > receiverCsr) {
+                receiver = segment;
+                receiverCsr = csr;
+            }
+        }
+
+        if (donor != null && receiver != null && donor != receiver &&
+                donorCsr < receiverCsr) {
+            donor.setCapacity(donor.capacity - step);
+            receiver.setCapacity(receiver.capacity + step);
+        }
+        rebalanceLock.unlock();
+    }
+
+    /** Cost-to-size ratio of a segment's next victim, or -1 if its lock is
+     * busy. Its queue may only be read under its lock */
+    private static double victimCsr(ConcurrentCampCache segment) {
+        if (!segment.lock.tryLock()) {
+            return -1;
+        }
+        MapNode victim = segment.toEvict();
+        double csr = (victim == null) ? 0 : victim.getCsr();
+        segment.lock.unlock();
+        return csr;
+    }
+}
@@ -0,0 +1,65 @@
+package cache.concurrent;
+
+import cache.MapNode;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Bounded, array-backed ring buffer for many producers and a single consumer.
+   Offering never allocates; a full buffer refuses the element instead of
+   growing. poll() must only be called by one thread at a time, which the
+   ConcurrentCache guarantees by polling under its lock.
+ */
+class WriteBuffer {
+    private final AtomicReferenceArray<MapNode> slots;
+    private final int mask;
+
+    /** Next slot to be claimed by a producer */
+    private final AtomicLong tail = new AtomicLong();
+    /** Next slot to be consumed. Only written by the consumer */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Capacity is rounded up to a power of two */
+    WriteBuffer(int capacity) {
+        int size = 1 << (Integer.SIZE -
+                Integer.numberOfLeadingZeros(Math.max(capacity, 2) - 1));
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /** Returns false if the buffer is full */
+    boolean offer(MapNode node) {
+        while (true) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                slots.lazySet((int) t & mask, node);
+                return true;
+            }
+        }
+    }
+
+    /** Returns null if empty, or if the next producer hasn't published yet */
+    MapNode poll() {
+        long h = head.get();
+        int index = (int) h & mask;
+        MapNode node = slots.get(index);
+        if (node == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        head.lazySet(h + 1);
+        return node;
+    }
+
+    /** Number of claimed slots that haven't been consumed */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -21,7 +21,7 @@ public class ConcurrentFakeCache implements Cache {
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
         if (data.containsKey(key)) {
             return false;
         }
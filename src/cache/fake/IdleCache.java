@@ -9,7 +9,7 @@ public class IdleCache implements Cache {
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
         return true;
     }
 }
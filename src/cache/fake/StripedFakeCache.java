@@ -33,7 +33,7 @@ public class StripedFakeCache implements Cache {
     }
 
     @Override
-    public boolean putIfAbsent(String key, String value, int cost, int size) {
+    public boolean putIfAbsent(String key, String value, long cost, long size) {
         int index = getBufferIndex();
         if (data[index].containsKey(key)) {
             return false;
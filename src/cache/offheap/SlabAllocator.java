@@ -0,0 +1,141 @@
+package cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Off-heap storage for cached values. Memory is taken from the OS as direct
+   ByteBuffer slabs of SLAB_SIZE bytes, each carved into equal chunks of one
+   size class: every power of two from MIN_CHUNK to SLAB_SIZE. A value is
+   stored UTF-8 encoded in the smallest chunk that holds it, and its chunk
+   goes back on its class's free list once the entry is removed, so evictions
+   make room for the next insert without returning memory to the OS. Memory
+   held by one class is not lent to another.
+
+   An address packs a slab number above a byte offset within that slab.
+   Thread-safe.
+ */
+public class SlabAllocator {
+    public static final int MIN_CHUNK = 64;
+    public static final int SLAB_SIZE = 1 << 20;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CHUNK);
+    private static final int NUM_CLASSES =
+            Integer.numberOfTrailingZeros(SLAB_SIZE) - MIN_SHIFT + 1;
+
+    /** All slabs so far, indexed by slab number. Replaced on growth */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private final Lock growLock = new ReentrantLock();
+
+    private final SizeClass[] classes = new SizeClass[NUM_CLASSES];
+
+    public SlabAllocator() {
+        for (int i = 0; i < NUM_CLASSES; i++) {
+            classes[i] = new SizeClass(MIN_CHUNK << i);
+        }
+    }
+
+    /** Copies value off-heap and returns a node pointing at it, charged the
+     * size of its chunk. Returns null if the value is larger than a slab */
+    public SlabNode store(String key, String value, long cost) {
+        return store(key,
+                ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)), cost);
+    }
+
+    /** Copies the remaining bytes of value straight into a chunk, leaving
+     * value's position alone. Otherwise the same as store(String) */
+    public SlabNode store(String key, ByteBuffer value, long cost) {
+        int length = value.remaining();
+        if (length > SLAB_SIZE) {
+            return null;
+        }
+
+        SizeClass sizeClass = classes[classOf(length)];
+        long address = sizeClass.allocate();
+        slab(address).put(offset(address), value, value.position(), length);
+        return new SlabNode(key, cost, this, address, length,
+                sizeClass.chunkSize);
+    }
+
+    /** Bytes taken from the OS so far */
+    public long reservedBytes() {
+        return (long) slabs.length * SLAB_SIZE;
+    }
+
+    void read(long address, byte[] dst) {
+        slab(address).get(offset(address), dst);
+    }
+
+    /** Copies length bytes to dst at index, leaving its position alone */
+    void read(long address, int length, ByteBuffer dst, int index) {
+        dst.put(index, slab(address), offset(address), length);
+    }
+
+    void free(long address, int length) {
+        classes[classOf(length)].free(address);
+    }
+
+    private static int classOf(int length) {
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(
+                Math.max(length, 1) - 1);
+        return Math.max(bits - MIN_SHIFT, 0);
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    /** Takes a new slab from the OS, returning its number */
+    private int addSlab() {
+        growLock.lock();
+        ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+        grown[slabs.length] = ByteBuffer.allocateDirect(SLAB_SIZE);
+        slabs = grown;
+        growLock.unlock();
+        return grown.length - 1;
+    }
+
+    /* Chunks of one size, with a stack of the free ones */
+    private final class SizeClass {
+        final int chunkSize;
+        private final Lock lock = new ReentrantLock();
+        private long[] free = new long[16];
+        private int numFree = 0;
+
+        SizeClass(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        long allocate() {
+            lock.lock();
+            if (numFree == 0) {
+                // Carve a fresh slab into chunks
+                long slab = (long) addSlab() << 32;
+                int chunks = SLAB_SIZE / chunkSize;
+                if (free.length < chunks) {
+                    free = Arrays.copyOf(free, chunks);
+                }
+                for (int i = chunks - 1; i >= 0; i--) {
+                    free[numFree++] = slab | ((long) i * chunkSize);
+                }
+            }
+            long address = free[--numFree];
+            lock.unlock();
+            return address;
+        }
+
+        void free(long address) {
+            lock.lock();
+            if (numFree == free.length) {
+                free = Arrays.copyOf(free, 2 * numFree);
+            }
+            free[numFree++] = address;
+            lock.unlock();
+        }
+    }
+}
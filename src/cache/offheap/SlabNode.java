@@ -0,0 +1,92 @@
+package cache.offheap;
+
+import cache.MapNode;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/* MapNode whose value lives in a SlabAllocator chunk. The node holds only
+   the chunk's address and the value's length; its size is the chunk size,
+   which is what the value really occupies.
+
+   Readers may race with removal: a reader that found the node in the map can
+   still be copying bytes while the drain frees the chunk and a writer reuses
+   it. So reads validate afterwards, like a seqlock, and report a miss if the
+   chunk was freed while they copied.
+ */
+public class SlabNode extends MapNode {
+    private final SlabAllocator slabs;
+    private final long address;
+    private final int length;
+    private volatile boolean freed = false;
+
+    SlabNode(String key, long cost, SlabAllocator slabs, long address,
+             int length, long chunkSize) {
+        super(key, null, cost, chunkSize);
+        this.slabs = slabs;
+        this.address = address;
+        this.length = length;
+    }
+
+    /** Decodes the value, or returns null if it has been freed */
+    @Override
+    public String getValue() {
+        byte[] bytes = copy();
+        return (bytes == null) ? null :
+                new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A view of a private copy: the chunk itself is reused once freed, so
+     * it can't be handed out. readValueBytes avoids the allocation */
+    @Override
+    public ByteBuffer getValueBytes() {
+        byte[] bytes = copy();
+        return (bytes == null) ? null :
+                ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readValueBytes(ByteBuffer dst) {
+        if (freed) {
+            return -1;
+        }
+        if (dst.remaining() < length) {
+            return length;
+        }
+        int position = dst.position();
+        slabs.read(address, length, dst, position);
+        // Don't let the check move ahead of the copy
+        VarHandle.loadLoadFence();
+        if (freed) {
+            return -1;
+        }
+        dst.position(position + length);
+        return length;
+    }
+
+    /** Copies out the value's bytes, or returns null if they were freed */
+    private byte[] copy() {
+        if (freed) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        slabs.read(address, bytes);
+        // Don't let the check move ahead of the copy
+        VarHandle.loadLoadFence();
+        if (freed) {
+            return null;
+        }
+        return bytes;
+    }
+
+    /** Returns the chunk for reuse. Must only be called by the thread that
+     * removed the node */
+    public void free() {
+        if (freed) {
+            return;
+        }
+        freed = true;
+        slabs.free(address, length);
+    }
+}
@@ -0,0 +1,42 @@
+package test;
+
+import cache.Cache;
+import cache.admission.AdmissionPolicy;
+import cache.admission.CostAwareAdmission;
+import cache.admission.IdlePolicy;
+import cache.admission.WeightedAdmission;
+import cache.concurrent.ConcurrentCampCache;
+
+/** Compares admission policies in front of ConcurrentCampCache on one trace,
+ *  at a capacity small enough to force evictions. Output matches
+ *  PerformanceTest. */
+public class AdmissionComparison {
+    public static void main(String[] args) {
+        String fname = args[0];
+        int capacity = Integer.parseInt(args[1]);
+        long expectedEntries = Long.parseLong(args[2]);
+        int runs = (args.length > 3) ? Integer.parseInt(args[3]) : 5;
+
+        String[] names = {"IdlePolicy", "WeightedAdmission",
+                "CostAwareAdmission"};
+        for (String name : names) {
+            System.out.println(name);
+            for (int j = 0; j < runs; j++) {
+                AdmissionPolicy policy;
+                if (name.equals("IdlePolicy")) {
+                    policy = IdlePolicy.getInstance();
+                } else if (name.equals("WeightedAdmission")) {
+                    policy = new WeightedAdmission();
+                } else {
+                    policy = new CostAwareAdmission(expectedEntries);
+                }
+
+                // Single-threaded, so only the policy differs between runs
+                Cache cache = new ConcurrentCampCache(capacity, 1, policy);
+                TraceTest test = new TraceTest(cache, fname, 1);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package test;
+
+import cache.Cache;
+import cache.CampCache;
+import cache.LruCache;
+import cache.concurrent.ConcurrentCampCache;
+import cache.concurrent.ConcurrentLruCache;
+
+/** Sweeps batch size as well as thread count. Each line is
+ *  batchSize,threads,missRatio,costMissRatio,elapsedMs */
+public class BatchPerformanceTest {
+    private static final int RUNS = 5;
+
+    private interface CacheFactory {
+        Cache create(int numThreads);
+    }
+
+    public static void main(String[] args) {
+        String fname = args[0];
+        run("LruCache", fname, t -> new LruCache(200000000));
+        run("CampCache", fname, t -> new CampCache(200000000));
+        run("ConcurrentLruCache", fname,
+                t -> new ConcurrentLruCache(200000000, t));
+        run("ConcurrentCampCache", fname,
+                t -> new ConcurrentCampCache(200000000, t));
+    }
+
+    private static void run(String name, String fname, CacheFactory factory) {
+        System.out.println(name);
+        for (int b = 0; b < 7; b++) {
+            for (int i = 0; i < 7; i++) {
+                for (int j = 0; j < RUNS; j++) {
+                    Cache cache = factory.create(1 << i);
+                    TraceTest test =
+                            new TraceTest(cache, fname, 1 << i, 0, 1 << b);
+                    test.run();
+                    System.out.print((1 << b) + ",");
+                    test.printResultsOneLine();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package test;
+
+import cache.concurrent.ConcurrentCache;
+import cache.concurrent.ConcurrentCampCache;
+import cache.concurrent.ConcurrentLruCache;
+import cache.offheap.SlabAllocator;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Measures bytes allocated and time per read hit through the String API
+ *  and both byte APIs, with values on heap and off heap. Each line is
+ *  cache,storage,api,bytesPerHit,nsPerHit */
+public class BytesAllocationBenchmark {
+    private static final int ENTRIES = 10000;
+    private static final int WARMUP_READS = 2000000;
+    private static final int TIMED_READS = 5000000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean();
+
+    private interface Read {
+        void run(ConcurrentCache cache, String key, ByteBuffer dst);
+    }
+
+    private interface CacheFactory {
+        ConcurrentCache create();
+    }
+
+    public static void main(String[] args) {
+        // Value length in bytes, 1 KB by default
+        int valueLength = (args.length > 0) ? Integer.parseInt(args[0]) : 1024;
+        System.out.println("cache,storage,api,bytesPerHit,nsPerHit");
+        run("ConcurrentLruCache", () -> new ConcurrentLruCache(
+                Integer.MAX_VALUE, 1), valueLength);
+        run("ConcurrentCampCache", () -> new ConcurrentCampCache(
+                Integer.MAX_VALUE, 1), valueLength);
+    }
+
+    private static void run(String name, CacheFactory factory,
+                            int valueLength) {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            ConcurrentCache cache = factory.create();
+            if (offHeap) {
+                cache.setOffHeapStorage(new SlabAllocator());
+            }
+
+            String[] keys = new String[ENTRIES];
+            byte[] value = new byte[valueLength];
+            for (int i = 0; i < ENTRIES; i++) {
+                keys[i] = "key" + i;
+                byte[] bytes = value.clone();
+                bytes[0] = (byte) i;
+                cache.putIfAbsent(keys[i], bytes, 1, valueLength);
+            }
+
+            String storage = offHeap ? "offHeap" : "onHeap";
+            measure(name, storage, "get", cache, keys, valueLength,
+                    (c, key, dst) -> c.get(key));
+            measure(name, storage, "getBytes", cache, keys, valueLength,
+                    (c, key, dst) -> c.getBytes(key));
+            measure(name, storage, "getBytesInto", cache, keys, valueLength,
+                    (c, key, dst) -> {
+                        dst.clear();
+                        c.getBytes(key, dst);
+                    });
+        }
+    }
+
+    private static void measure(String name, String storage, String api,
+                                ConcurrentCache cache, String[] keys,
+                                int valueLength, Read read) {
+        ByteBuffer dst = ByteBuffer.allocate(valueLength);
+        Random generator = new Random(42);
+        for (int i = 0; i < WARMUP_READS; i++) {
+            read.run(cache, keys[generator.nextInt(ENTRIES)], dst);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long startBytes = THREADS.getThreadAllocatedBytes(thread);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TIMED_READS; i++) {
+            read.run(cache, keys[generator.nextInt(ENTRIES)], dst);
+        }
+        long elapsed = System.nanoTime() - startTime;
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - startBytes;
+
+        System.out.println(name + "," + storage + "," + api + "," +
+                ((double) allocated / TIMED_READS) + "," +
+                ((double) elapsed / TIMED_READS));
+    }
+}
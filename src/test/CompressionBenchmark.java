@@ -0,0 +1,115 @@
+package test;
+
+import cache.compress.Codec;
+import cache.compress.DeflateCodec;
+import cache.compress.ValueCompressor;
+import cache.concurrent.ConcurrentCampCache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/** Fills a ConcurrentCampCache of fixed capacity with compressible values,
+ *  uncompressed and then with Deflate at a few levels, and measures how much
+ *  it holds and how long a read hit takes. Effective capacity is the
+ *  uncompressed bytes held over the capacity. nsPerDecompress times the
+ *  codec alone on the same values in the same order, so that the rest of a
+ *  hit's time is the cache's. Each line is
+ *  codec,entriesHeld,effectiveCapacity,nsPerGet,nsPerGetBytesInto,
+ *  nsPerDecompress */
+public class CompressionBenchmark {
+    private static final long CAPACITY = 64L << 20;
+    private static final int ENTRIES = 100000;
+    private static final int WARMUP_READS = 50000;
+    private static final int TIMED_READS = 200000;
+    private static final String[] WORDS = {"cache", "entry", "cost", "size",
+            "priority", "queue", "bucket", "heap", "value", "key", "\"id\":",
+            "\"name\":", "{", "}", ",", "null", "true", "false"};
+
+    public static void main(String[] args) {
+        // Value length in bytes, 4 KB by default
+        int valueLength = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+        byte[][] values = new byte[ENTRIES][];
+        Random generator = new Random(42);
+        for (int i = 0; i < ENTRIES; i++) {
+            values[i] = payload(generator, valueLength);
+        }
+
+        System.out.println("codec,entriesHeld,effectiveCapacity,nsPerGet," +
+                "nsPerGetBytesInto,nsPerDecompress");
+        run("none", null, values, valueLength);
+        run("deflate1", new DeflateCodec(Deflater.BEST_SPEED), values,
+                valueLength);
+        run("deflate6", new DeflateCodec(Deflater.DEFAULT_COMPRESSION),
+                values, valueLength);
+    }
+
+    private static void run(String name, Codec codec, byte[][] values,
+                            int valueLength) {
+        ConcurrentCampCache cache = new ConcurrentCampCache(CAPACITY, 1);
+        if (codec != null) {
+            cache.setCompression(new ValueCompressor(codec, 256));
+        }
+        String[] keys = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = "key" + i;
+            cache.putIfAbsent(keys[i], values[i], 1, valueLength);
+        }
+
+        // Only read what is still held, so every timed read is a hit
+        int held = 0;
+        Map<String, byte[]> compressed = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            if (cache.getBytes(keys[i], ByteBuffer.allocate(0)) >= 0) {
+                keys[held++] = keys[i];
+                if (codec != null) {
+                    compressed.put(keys[i], codec.compress(values[i]));
+                }
+            }
+        }
+        double effective = (double) held * valueLength / CAPACITY;
+
+        ByteBuffer dst = ByteBuffer.allocate(valueLength);
+        long nsPerGet = time(held, keys, k -> cache.get(k));
+        long nsPerGetBytesInto = time(held, keys, k -> {
+            dst.clear();
+            cache.getBytes(k, dst);
+        });
+        long nsPerDecompress = (codec == null) ? 0 : time(held, keys, k -> {
+            dst.clear();
+            codec.decompress(compressed.get(k), dst);
+        });
+        System.out.println(name + "," + held + "," + effective + "," +
+                nsPerGet + "," + nsPerGetBytesInto + "," + nsPerDecompress);
+    }
+
+    private interface Read {
+        void run(String key);
+    }
+
+    private static long time(int held, String[] keys, Read read) {
+        Random generator = new Random(7);
+        for (int i = 0; i < WARMUP_READS; i++) {
+            read.run(keys[generator.nextInt(held)]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMED_READS; i++) {
+            read.run(keys[generator.nextInt(held)]);
+        }
+        return (System.nanoTime() - start) / TIMED_READS;
+    }
+
+    /** Text of random words, roughly as compressible as JSON */
+    private static byte[] payload(Random generator, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(WORDS[generator.nextInt(WORDS.length)]);
+            sb.append(generator.nextInt(1000)).append(' ');
+        }
+        sb.setLength(length);
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,48 @@
+package test;
+
+import cache.Cache;
+import cache.CampCache;
+
+import java.util.Random;
+
+/** Measures read-hit latency of CampCache as the number of distinct priority
+ *  classes grows. Every class holds only a few entries, so most hits land on
+ *  the head of an LRU queue and have to update the heap. */
+public class HeapBenchmark {
+    private static final int ENTRIES_PER_CLASS = 4;
+    private static final int WARMUP_READS = 2000000;
+    private static final int TIMED_READS = 5000000;
+
+    public static void main(String[] args) {
+        // Precision 13 keeps every cost-to-size ratio below 8192 distinct
+        int precision = (args.length > 0) ? Integer.parseInt(args[0]) : 13;
+        System.out.println("classes,entries,nsPerHit");
+        for (int classes = 16; classes <= 4096; classes <<= 2) {
+            run(classes, precision);
+        }
+    }
+
+    private static void run(int classes, int precision) {
+        int entries = classes * ENTRIES_PER_CLASS;
+        Cache cache = new CampCache(Integer.MAX_VALUE, precision);
+        String[] keys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "key" + i;
+            cache.putIfAbsent(keys[i], "", (i % classes) + 1, 1);
+        }
+
+        Random generator = new Random(42);
+        for (int i = 0; i < WARMUP_READS; i++) {
+            cache.get(keys[generator.nextInt(entries)]);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TIMED_READS; i++) {
+            cache.get(keys[generator.nextInt(entries)]);
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        System.out.println(classes + "," + entries + "," +
+                ((double) elapsed / TIMED_READS));
+    }
+}
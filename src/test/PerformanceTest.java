@@ -4,8 +4,12 @@ import cache.Cache;
 import cache.CampCache;
 import cache.LruCache;
 import cache.admission.WeightedAdmission;
+import cache.compact.CompactCampCache;
+import cache.compact.CompactLruCache;
+import cache.concurrent.ClockCampCache;
 import cache.concurrent.ConcurrentCampCache;
 import cache.concurrent.ConcurrentLruCache;
+import cache.concurrent.SegmentedCampCache;
 import cache.fake.ConcurrentFakeCache;
 import cache.fake.IdleCache;
 import cache.fake.StripedFakeCache;
@@ -32,6 +36,24 @@ public class PerformanceTest {
                 test.printResultsOneLine();
             }
         }
+        System.out.println("CompactLruCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 25; j++) {
+                Cache cache = new CompactLruCache(200000000);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
+        System.out.println("CompactCampCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 25; j++) {
+                Cache cache = new CompactCampCache(200000000);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
         System.out.println("IdleCache");
         for (int i = 0; i < 7; i++) {
             for (int j = 0; j < 25; j++) {
@@ -77,6 +99,24 @@ public class PerformanceTest {
                 test.printResultsOneLine();
             }
         }
+        System.out.println("SegmentedCampCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 25; j++) {
+                Cache cache = new SegmentedCampCache(200000000, 1 << i);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
+        System.out.println("ClockCampCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < 25; j++) {
+                Cache cache = new ClockCampCache(200000000, 1 << i);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
         System.out.println("ConcurrentLruCacheAP");
         for (int i = 0; i < 7; i++) {
             for (int j = 0; j < 25; j++) {
@@ -0,0 +1,47 @@
+package test;
+
+import cache.admission.IdlePolicy;
+import cache.concurrent.ConcurrentCampCache;
+import cache.concurrent.PrecisionStats;
+
+/** Runs ConcurrentCampCache with adaptive precision over several traces, from
+ *  a few starting precisions, and prints the precision and measurements of
+ *  every window. Each trace is replayed PASSES times into the same cache, so
+ *  that the climber sees a fixed workload long enough to settle. Arguments:
+ *  capacity, then one or more trace files. */
+public class PrecisionConvergence {
+    private static final int[] START_PRECISIONS = {1, 5, 12};
+    private static final int PASSES = 10;
+
+    public static void main(String[] args) {
+        int capacity = Integer.parseInt(args[0]);
+
+        for (int f = 1; f < args.length; f++) {
+            String fname = args[f];
+            for (int start : START_PRECISIONS) {
+                System.out.println(fname + " from precision " + start);
+                ConcurrentCampCache cache = new ConcurrentCampCache(capacity,
+                        1, start, IdlePolicy.getInstance());
+                cache.setAdaptivePrecision(true);
+
+                // Single-threaded, so that windows see the trace in order
+                for (int pass = 0; pass < PASSES; pass++) {
+                    TraceTest test = new TraceTest(cache, fname, 1);
+                    test.run();
+                    if (pass == PASSES - 1) {
+                        test.printResults();
+                    }
+                }
+
+                PrecisionStats stats = cache.getPrecisionStats();
+                System.out.println("precision,costMissRatio,standardError," +
+                        "drainNanosPerOp");
+                for (PrecisionStats.Window w : stats.getHistory()) {
+                    System.out.println(w);
+                }
+                System.out.println("Final precision: " + stats.getPrecision() +
+                        (stats.isSettled() ? ", settled" : ", climbing"));
+            }
+        }
+    }
+}
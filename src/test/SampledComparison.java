@@ -0,0 +1,34 @@
+package test;
+
+import cache.Cache;
+import cache.concurrent.ConcurrentCampCache;
+import cache.concurrent.SampledCampCache;
+
+/** Compares exact CAMP against sampled CAMP on one trace, at a capacity small
+ *  enough to force evictions. Output matches PerformanceTest. */
+public class SampledComparison {
+    public static void main(String[] args) {
+        String fname = args[0];
+        int capacity = Integer.parseInt(args[1]);
+        int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println("ConcurrentCampCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < runs; j++) {
+                Cache cache = new ConcurrentCampCache(capacity, 1 << i);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
+        System.out.println("SampledCampCache");
+        for (int i = 0; i < 7; i++) {
+            for (int j = 0; j < runs; j++) {
+                Cache cache = new SampledCampCache(capacity, 1 << i);
+                TraceTest test = new TraceTest(cache, fname, 1 << i);
+                test.run();
+                test.printResultsOneLine();
+            }
+        }
+    }
+}
@@ -1,28 +1,54 @@
 package test;
 
 import cache.Cache;
+import cache.CacheLoader;
+import cache.CacheValue;
 import cache.LruCache;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class TraceTest {
     private final Cache c;
     private final int numThreads;
+    /** Simulated loader latency per unit of cost, or 0 to insert directly */
+    private final long nanosPerCost;
+    /** Consecutive requests issued together through getAll/putAllIfAbsent */
+    private final int batchSize;
     private long totalCost, missCost, totalAttempt, missAttempt;
+    private long loadCost, loadAttempt;
     private final ExecutorService pool;
     private final ArrayList<Request> requests = new ArrayList<>();
+    private final ArrayList<Batch> batches = new ArrayList<>();
 
     private long elapsedTime;
 
-    public TraceTest(Cache c, String fileName, int numThreads) {
+    /** With a positive nanosPerCost, misses go through Cache.get(key, loader)
+     * with a loader that sleeps for cost * nanosPerCost. Comparing loads with
+     * misses then shows how many duplicate loads were coalesced */
+    public TraceTest(Cache c, String fileName, int numThreads,
+                     long nanosPerCost) {
+        this(c, fileName, numThreads, nanosPerCost, 1);
+    }
+
+    /** With a batchSize above 1, every batchSize consecutive requests are
+     * looked up with one getAll, and their misses inserted with one
+     * putAllIfAbsent. Batches don't use loaders */
+    public TraceTest(Cache c, String fileName, int numThreads,
+                     long nanosPerCost, int batchSize) {
         this.c = c;
         this.numThreads = numThreads;
+        this.nanosPerCost = nanosPerCost;
+        this.batchSize = batchSize;
         pool = Executors.newFixedThreadPool(numThreads);
 
         try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
@@ -38,12 +64,27 @@ public class TraceTest {
         catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (batchSize > 1) {
+            for (int i = 0; i < requests.size(); i += batchSize) {
+                int end = Math.min(i + batchSize, requests.size());
+                batches.add(new Batch(requests.subList(i, end)));
+            }
+        }
+    }
+
+    public TraceTest(Cache c, String fileName, int numThreads) {
+        this(c, fileName, numThreads, 0);
     }
 
     public void run() {
         // To get a reasonable runtime, run through requests 20 times each
         long startTime = System.currentTimeMillis();
-        requests.forEach(pool::execute);
+        if (batchSize > 1) {
+            batches.forEach(pool::execute);
+        } else {
+            requests.forEach(pool::execute);
+        }
 
         pool.shutdown();
         try {
@@ -63,6 +104,12 @@ public class TraceTest {
         System.out.println("Time Elapsed: " + elapsedTime + "ms");
         System.out.println("Miss ratio: " + missRatio);
         System.out.println("Cost-Miss ratio: " + costMissRatio);
+        if (nanosPerCost > 0) {
+            double loadRatio = (double) loadAttempt / totalAttempt;
+            double costLoadRatio = (double) loadCost / totalCost;
+            System.out.println("Load ratio: " + loadRatio);
+            System.out.println("Cost-Load ratio: " + costLoadRatio);
+        }
     }
 
     public void printResultsOneLine() {
@@ -78,18 +125,23 @@ public class TraceTest {
         missCost = 0;
         totalAttempt = 0;
         missAttempt = 0;
+        loadCost = 0;
+        loadAttempt = 0;
         for (Request r : requests) {
             totalCost += r.totalCost;
             missCost += r.missCost;
             totalAttempt += r.totalAttempt;
             missAttempt += r.missAttempt;
+            loadCost += r.loadCost;
+            loadAttempt += r.loadAttempt;
         }
     }
 
-    private class Request implements Runnable {
+    private class Request implements Runnable, CacheLoader {
         private final String key;
         private final int cost, size;
         private long totalCost, missCost, totalAttempt, missAttempt;
+        private long loadCost, loadAttempt;
 
         public Request(String key, int size, int cost) {
             this.key = key;
@@ -105,7 +157,11 @@ public class TraceTest {
         public void run() {
             String result = c.get(key);
             if (result == null) {
-                c.putIfAbsent(key, "", cost, size);
+                if (nanosPerCost > 0) {
+                    c.get(key, this);
+                } else {
+                    c.putIfAbsent(key, "", cost, size);
+                }
 
                 missAttempt++;
                 missCost += cost;
@@ -113,11 +169,56 @@ public class TraceTest {
             totalAttempt++;
             totalCost += cost;
         }
+
+        /** Simulates recomputing the value, with latency proportional to cost */
+        @Override
+        public CacheValue load(String key) {
+            LockSupport.parkNanos(cost * nanosPerCost);
+            loadAttempt++;
+            loadCost += cost;
+            return new CacheValue("", cost, size);
+        }
+    }
+
+    private class Batch implements Runnable {
+        private final List<Request> members;
+        private final List<String> keys;
+
+        public Batch(List<Request> members) {
+            this.members = members;
+            keys = new ArrayList<>(members.size());
+            for (Request r : members) {
+                keys.add(r.key);
+            }
+        }
+
+        @Override
+        public void run() {
+            Map<String, String> found = c.getAll(keys);
+            Map<String, CacheValue> missing = new HashMap<>();
+            for (Request r : members) {
+                if (!found.containsKey(r.key)) {
+                    missing.putIfAbsent(r.key,
+                            new CacheValue("", r.cost, r.size));
+
+                    r.missAttempt++;
+                    r.missCost += r.cost;
+                }
+                r.totalAttempt++;
+                r.totalCost += r.cost;
+            }
+            if (!missing.isEmpty()) {
+                c.putAllIfAbsent(missing);
+            }
+        }
     }
 
     public static void main(String[] args) {
+        long nanosPerCost = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+        int numThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
         Cache cache = new LruCache(200000000);
-        TraceTest test = new TraceTest(cache, args[0], 1);
+        TraceTest test = new TraceTest(cache, args[0], numThreads,
+                nanosPerCost);
         System.out.println("Starting test...");
         test.run();
         test.printResults();
@@ -0,0 +1,83 @@
+package test;
+
+import cache.SegmentStore;
+import cache.admission.IdlePolicy;
+import cache.concurrent.ConcurrentCampCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/** Runs a trace through ConcurrentCampCache alone, then with costly
+ *  evictions demoted to a SegmentStore, at the same first-tier capacity.
+ *  Second-tier hits are promoted by get, so the cost-miss ratio TraceTest
+ *  prints for the second run is that of both tiers combined. First checks
+ *  that getAll finds demoted entries as get does. Arguments:
+ *  trace file, capacity, demotion cost threshold, then optionally segment
+ *  size in bytes (1 MB) and number of segments (16). */
+public class TwoTierComparison {
+    public static void main(String[] args) throws IOException {
+        String fname = args[0];
+        long capacity = Long.parseLong(args[1]);
+        long threshold = Long.parseLong(args[2]);
+        int segmentBytes = (args.length > 3) ? Integer.parseInt(args[3]) :
+                1 << 20;
+        int segments = (args.length > 4) ? Integer.parseInt(args[4]) : 16;
+
+        checkGetAll();
+
+        System.out.println("ConcurrentCampCache");
+        ConcurrentCampCache cache = new ConcurrentCampCache(capacity, 1, 5,
+                IdlePolicy.getInstance());
+        TraceTest test = new TraceTest(cache, fname, 1);
+        test.run();
+        test.printResults();
+
+        System.out.println("ConcurrentCampCache + SegmentStore");
+        Path directory = Files.createTempDirectory("segments");
+        SegmentStore tier = new SegmentStore(directory, segmentBytes,
+                segments);
+        cache = new ConcurrentCampCache(capacity, 1, 5,
+                IdlePolicy.getInstance());
+        cache.setSecondTier(tier, threshold);
+        test = new TraceTest(cache, fname, 1);
+        test.run();
+        test.printResults();
+        System.out.println("Demoted: " + tier.demotionCount());
+        System.out.println("Second-tier hits: " + tier.hitCount());
+        System.out.println("Dropped with their segment: " + tier.dropCount());
+        System.out.println("Failed demotions: " + tier.failedDemotionCount());
+        tier.close();
+        Files.deleteIfExists(directory);
+    }
+
+    /** Demotes most of a small cache's entries, then looks them all up with
+     * one getAll, which must promote the demoted ones as get would */
+    private static void checkGetAll() throws IOException {
+        Path directory = Files.createTempDirectory("segments");
+        SegmentStore tier = new SegmentStore(directory, 1 << 20, 4);
+        ConcurrentCampCache cache = new ConcurrentCampCache(100, 1, 5,
+                IdlePolicy.getInstance());
+        cache.setSecondTier(tier, 0);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            keys.add("key" + i);
+            cache.putIfAbsent("key" + i, "value" + i, 1000, 10);
+        }
+        long demoted = tier.size();
+
+        Map<String, String> found = cache.getAll(keys);
+        // Promotions demote others in turn, which may then be hit as well
+        System.out.println("getAll found " + found.size() + " of " +
+                keys.size() + " keys with " + demoted + " demoted; " +
+                tier.hitCount() + " second-tier hits");
+        tier.close();
+        Files.deleteIfExists(directory);
+        if (found.size() != keys.size() || tier.hitCount() < demoted) {
+            throw new IllegalStateException("getAll missed demoted entries");
+        }
+    }
+}